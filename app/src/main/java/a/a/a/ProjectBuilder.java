@@ -4,6 +4,7 @@ import static android.system.OsConstants.S_IRUSR;
 import static android.system.OsConstants.S_IWUSR;
 import static android.system.OsConstants.S_IXUSR;
 
+import android.app.ActivityManager;
 import android.content.Context;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageInfo;
@@ -17,57 +18,61 @@ import android.text.format.Formatter;
 import android.util.Log;
 import android.widget.Toast;
 
-import com.android.sdklib.build.ApkBuilder;
-import com.android.sdklib.build.ApkCreationException;
-import com.android.sdklib.build.DuplicateFileException;
-import com.android.sdklib.build.SealedApkException;
+import com.android.apksig.ApkSignerEngine;
 import com.github.megatronking.stringfog.plugin.StringFogClassInjector;
 import com.github.megatronking.stringfog.plugin.StringFogMappingPrinter;
-import com.iyxan23.zipalignjava.InvalidZipException;
-import com.iyxan23.zipalignjava.ZipAlign;
 
+import org.eclipse.jdt.internal.compiler.batch.FileSystem;
 import org.xml.sax.SAXException;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
-import java.io.RandomAccessFile;
-import java.lang.reflect.Method;
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 import mod.agus.jcoderz.dex.Dex;
-import mod.agus.jcoderz.dex.FieldId;
-import mod.agus.jcoderz.dex.MethodId;
-import mod.agus.jcoderz.dex.ProtoId;
 import mod.agus.jcoderz.dx.command.dexer.DxContext;
 import mod.agus.jcoderz.dx.command.dexer.Main;
 import mod.agus.jcoderz.dx.merge.CollisionPolicy;
 import mod.agus.jcoderz.dx.merge.DexMerger;
 import mod.agus.jcoderz.editor.library.ExtLibSelected;
 import mod.agus.jcoderz.editor.manage.library.locallibrary.ManageLocalLibrary;
+import mod.alucard.tn.apksigner.ApkSigner;
 import mod.hey.studios.build.BuildSettings;
 import mod.hey.studios.compiler.kotlin.KotlinCompilerBridge;
+import mod.hey.studios.compiler.kotlin.KotlinCompilerUtil;
 import mod.hey.studios.project.ProjectSettings;
 import mod.hey.studios.project.proguard.ProguardHandler;
+import mod.hey.studios.project.stringfog.StringfogHandler;
 import mod.hey.studios.util.SystemLogPrinter;
+import mod.jbk.build.ApkWriter;
 import mod.jbk.build.BuildProgressReceiver;
+import mod.jbk.build.BuildTrace;
 import mod.jbk.build.BuiltInLibraries;
+import mod.jbk.build.ClasspathIndex;
 import mod.jbk.build.compiler.dex.DexCompiler;
+import mod.jbk.build.compiler.dex.DexMergePlanner;
+import mod.jbk.build.compiler.dex.DxCompiler;
+import mod.jbk.build.compiler.java.IndexedClasspathJar;
 import mod.jbk.build.compiler.resource.ResourceCompiler;
+import mod.jbk.build.incremental.ContentHasher;
+import mod.jbk.build.incremental.HashManifest;
+import mod.jbk.build.incremental.IncrementalJavaCompilation;
 import mod.jbk.util.LogUtil;
-import mod.jbk.util.TestkeySignBridge;
 import mod.pranav.build.JarBuilder;
 import mod.pranav.build.R8Compiler;
 import mod.pranav.viewbinding.ViewBindingBuilder;
@@ -84,6 +89,28 @@ import proguard.ProGuard;
 public class ProjectBuilder {
     public static final String TAG = "AppBuilder";
 
+    /**
+     * Build stages which incremental builds skip if their inputs didn't change since the last
+     * successful build, see {@link #isStageUpToDate(String)}.
+     */
+    public static final String STAGE_RESOURCES = "resources";
+    public static final String STAGE_CLASSES = "classes";
+    public static final String STAGE_DEX = "dex";
+    public static final String STAGE_APK = "apk";
+    /**
+     * How many sets of merged library DEX files to keep, e.g. for different projects
+     */
+    private static final int MAX_CACHED_LIBRARY_DEX_BUNDLES = 4;
+    /**
+     * Each merge keeps its input DEX files and DexMerger's tables in memory, and projects rarely
+     * have more than 3-4 output DEX files
+     */
+    private static final int MAX_PARALLEL_DEX_MERGES = 2;
+    /**
+     * Heap size in MB from which memory-hungry build steps, like merging DEX files, run in parallel
+     */
+    private static final int PARALLEL_STEPS_MIN_HEAP_MB = 256;
+
     private final File aapt2Binary;
     private final Context context;
     public BuildSettings build_settings;
@@ -97,6 +124,10 @@ public class ProjectBuilder {
     private BuildProgressReceiver progressReceiver;
     private boolean buildAppBundle = false;
     private ArrayList<File> dexesToAddButNotMerge = new ArrayList<>();
+    private HashManifest stageHashes;
+    private List<File> libraryDexes;
+    private final HashMap<String, String> pendingStageHashes = new HashMap<>();
+    private final BuildTrace buildTrace = new BuildTrace();
 
     /**
      * Timestamp keeping track of when compiling the project's resources started, needed for stats of how long compiling took.
@@ -182,21 +213,41 @@ public class ProjectBuilder {
      */
     public void compileResources() throws Exception {
         timestampResourceCompilationStarted = System.currentTimeMillis();
-        ResourceCompiler compiler = new ResourceCompiler(
-                this,
-                aapt2Binary,
-                buildAppBundle,
-                progressReceiver);
-        compiler.compile();
+        try (BuildTrace.Span span = buildTrace.begin("resources", "Compile resources")) {
+            ResourceCompiler compiler = new ResourceCompiler(
+                    this,
+                    aapt2Binary,
+                    buildAppBundle,
+                    progressReceiver);
+            compiler.compile();
+            span.bytesOut(new File(yq.resourcesApkPath).length());
+        }
         LogUtil.d(TAG, "Compiling resources took " + (System.currentTimeMillis() - timestampResourceCompilationStarted) + " ms");
     }
 
+    /**
+     * @return Spans of this build, which stages and the compilers they run add to
+     */
+    public BuildTrace getBuildTrace() {
+        return buildTrace;
+    }
+
+    /**
+     * Writes this build's spans to {@link FilePathUtil#getLastBuildTracePath(String)}, where the
+     * compile log screen shows them.
+     */
+    public void writeBuildTrace() {
+        buildTrace.write(new File(FilePathUtil.getLastBuildTracePath(yq.sc_id)));
+    }
+
     public void generateViewBinding() throws IOException, SAXException {
         if (settings.getValue(ProjectSettings.SETTING_ENABLE_VIEWBINDING, ProjectSettings.SETTING_GENERIC_VALUE_FALSE)
                 .equals(ProjectSettings.SETTING_GENERIC_VALUE_FALSE)) {
             return;
         }
         File outputDirectory = new File(yq.javaFilesPath + File.separator + yq.packageName.replace(".", File.separator) + File.separator + "databinding");
+        // Bindings of removed layouts would be left over in incremental builds otherwise
+        FileUtil.deleteFile(outputDirectory.getAbsolutePath());
         outputDirectory.mkdirs();
 
         List<File> layouts = FileUtil.listFiles(yq.layoutFilesPath, "xml").stream()
@@ -219,6 +270,218 @@ public class ProjectBuilder {
         return (isD8Enabled() ? "D8" : "Dx") + " is running...";
     }
 
+    /**
+     * @return If build outputs are kept between builds, and stages with unchanged inputs are skipped.
+     * Only debug builds are built incrementally.
+     */
+    public boolean isIncrementalBuildEnabled() {
+        return isIncrementalBuildEnabled(build_settings, yq.N.isDebugBuild);
+    }
+
+    /**
+     * For deciding before a {@link ProjectBuilder} exists, e.g. whether to keep the last build's outputs.
+     *
+     * @see #isIncrementalBuildEnabled()
+     */
+    public static boolean isIncrementalBuildEnabled(BuildSettings buildSettings, boolean isDebugBuild) {
+        return isDebugBuild && buildSettings.getValue(BuildSettings.SETTING_INCREMENTAL_BUILD,
+                BuildSettings.SETTING_GENERIC_VALUE_FALSE).equals(BuildSettings.SETTING_GENERIC_VALUE_TRUE);
+    }
+
+    /**
+     * @return If the app's heap is large enough to run memory-hungry build steps, like merging
+     * DEX files, in parallel
+     */
+    public boolean hasMemoryForParallelSteps() {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        /* We request a large heap */
+        return !activityManager.isLowRamDevice() && activityManager.getLargeMemoryClass() >= PARALLEL_STEPS_MIN_HEAP_MB;
+    }
+
+    /**
+     * Checks if a build stage can be skipped, because incremental builds are enabled, the stage's
+     * inputs didn't change since it last finished, and its outputs still exist.
+     * <p>
+     * If the stage has to run, its outputs from previous builds get deleted, and
+     * {@link #markStageFinished(String)} must be called once it succeeded.
+     *
+     * @param stage One of {@link #STAGE_RESOURCES}, {@link #STAGE_CLASSES}, {@link #STAGE_DEX} and {@link #STAGE_APK}
+     */
+    public synchronized boolean isStageUpToDate(String stage) {
+        if (!isIncrementalBuildEnabled()) return false;
+
+        try (BuildTrace.Span span = buildTrace.begin("stage", "Check stage " + stage)) {
+            HashManifest manifest = getStageHashes();
+            String inputHash;
+            try {
+                inputHash = computeStageInputHash(stage);
+            } catch (IOException e) {
+                LogUtil.w(TAG, "Couldn't hash inputs of stage " + stage + ", running it", e);
+                inputHash = null;
+            }
+
+            if (manifest.matches(stage, inputHash) && areStageOutputsPresent(stage)) {
+                LogUtil.d(TAG, "Inputs of stage " + stage + " didn't change, skipping it");
+                span.cacheHit(true);
+                return true;
+            }
+
+            /* Outputs of a stage that didn't finish must never be considered up-to-date */
+            manifest.remove(stage);
+            manifest.save();
+            if (inputHash != null) {
+                pendingStageHashes.put(stage, inputHash);
+            }
+            cleanStageOutputs(stage);
+            span.cacheHit(false);
+            return false;
+        }
+    }
+
+    /**
+     * Records a stage as successfully finished with the inputs hashed by {@link #isStageUpToDate(String)}.
+     */
+    public synchronized void markStageFinished(String stage) {
+        String inputHash = pendingStageHashes.remove(stage);
+        if (inputHash != null) {
+            HashManifest manifest = getStageHashes();
+            manifest.put(stage, inputHash);
+            manifest.save();
+        }
+    }
+
+    private HashManifest getStageHashes() {
+        if (stageHashes == null) {
+            stageHashes = new HashManifest(new File(yq.binDirectoryPath, "incremental" + File.separator + "stages.json"));
+        }
+        return stageHashes;
+    }
+
+    private String computeStageInputHash(String stage) throws IOException {
+        ContentHasher hasher = new ContentHasher().putString(stage);
+
+        switch (stage) {
+            case STAGE_RESOURCES -> {
+                hasher.putDirectory(new File(yq.resDirectoryPath))
+                        .putFile(new File(yq.androidManifestPath))
+                        .putDirectory(new File(yq.assetsPath))
+                        .putDirectory(new File(fpu.getPathResource(yq.sc_id)))
+                        .putDirectory(new File(fpu.getPathAssets(yq.sc_id)))
+                        .putFileMetadata(new File(androidJarPath))
+                        .putString(getLibraryPackageNames())
+                        .putString(String.valueOf(buildAppBundle))
+                        .putString(String.valueOf(settings.getMinSdkVersion()))
+                        .putString(settings.getValue(ProjectSettings.SETTING_TARGET_SDK_VERSION, ""))
+                        .putString(yq.versionCode)
+                        .putString(yq.versionName);
+                for (Jp library : builtInLibraryManager.getLibraries()) {
+                    hasher.putString(library.getName());
+                }
+                for (String localLibraryRes : mll.getResLocalLibrary()) {
+                    hasher.putDirectory(new File(localLibraryRes));
+                }
+                for (String localLibraryAssets : mll.getAssets()) {
+                    hasher.putDirectory(new File(localLibraryAssets));
+                }
+            }
+            case STAGE_CLASSES -> {
+                hasher.putDirectory(new File(yq.javaFilesPath))
+                        .putDirectory(new File(yq.rJavaDirectoryPath))
+                        .putDirectory(new File(fpu.getPathJava(yq.sc_id)))
+                        .putDirectory(new File(fpu.getPathBroadcast(yq.sc_id)))
+                        .putDirectory(new File(fpu.getPathService(yq.sc_id)))
+                        .putString(build_settings.getValue(BuildSettings.SETTING_JAVA_VERSION, BuildSettings.SETTING_JAVA_VERSION_1_7))
+                        .putString(build_settings.getValue(BuildSettings.SETTING_NO_WARNINGS, BuildSettings.SETTING_GENERIC_VALUE_TRUE))
+                        .putString(String.valueOf(new StringfogHandler(yq.sc_id).isStringfogEnabled()))
+                        .putString(String.valueOf(proguard.isShrinkingEnabled()))
+                        .putString(String.valueOf(proguard.isR8Enabled()))
+                        .putFile(new File(proguard.getCustomProguardRules()));
+                putClasspathMetadata(hasher);
+            }
+            case STAGE_DEX -> {
+                hasher.putDirectory(new File(yq.compiledClassesPath))
+                        .putFile(new File(yq.proguardClassesPath))
+                        .putString(build_settings.getValue(BuildSettings.SETTING_DEXER, BuildSettings.SETTING_DEXER_DX))
+                        .putString(String.valueOf(settings.getMinSdkVersion()));
+                putClasspathMetadata(hasher);
+            }
+            case STAGE_APK -> {
+                hasher.putFile(new File(yq.resourcesApkPath))
+                        .putDirectory(new File(yq.binDirectoryPath, "dex"))
+                        .putDirectory(new File(fpu.getPathNativelibs(yq.sc_id)));
+                for (String dexFile : FileUtil.listFiles(yq.binDirectoryPath, "dex")) {
+                    hasher.putFile(new File(dexFile));
+                }
+                for (File dexFile : dexesToAddButNotMerge) {
+                    hasher.putFileMetadata(dexFile);
+                }
+                for (String nativeLibraryDirectory : mll.getNativeLibs()) {
+                    hasher.putDirectory(new File(nativeLibraryDirectory));
+                }
+                putClasspathMetadata(hasher);
+            }
+            default -> throw new IllegalArgumentException("Unknown build stage " + stage);
+        }
+
+        return hasher.hash();
+    }
+
+    private void putClasspathMetadata(ContentHasher hasher) {
+        for (String classpathEntry : getClasspath().split(":")) {
+            if (!classpathEntry.isEmpty() && !classpathEntry.equals(yq.compiledClassesPath)) {
+                hasher.putFileMetadata(new File(classpathEntry));
+            }
+        }
+    }
+
+    private boolean areStageOutputsPresent(String stage) {
+        return switch (stage) {
+            case STAGE_RESOURCES ->
+                    new File(yq.resourcesApkPath).isFile() && new File(yq.rJavaDirectoryPath).isDirectory();
+            case STAGE_CLASSES -> {
+                if (!new File(yq.compiledClassesPath).isDirectory()) yield false;
+                if (proguard.isShrinkingEnabled()) {
+                    yield proguard.isR8Enabled() ? new File(yq.binDirectoryPath, "dex").isDirectory()
+                            : new File(yq.proguardClassesPath).isFile();
+                }
+                yield true;
+            }
+            case STAGE_DEX -> !FileUtil.listFiles(yq.binDirectoryPath + File.separator + "dex", "dex").isEmpty();
+            case STAGE_APK -> new File(yq.finalToInstallApkPath).isFile();
+            default -> false;
+        };
+    }
+
+    /**
+     * Deletes outputs of a stage that's about to run again, so that no stale classes or DEX files
+     * of previous builds end up in the APK.
+     */
+    private void cleanStageOutputs(String stage) {
+        switch (stage) {
+            case STAGE_CLASSES -> {
+                /* Up-to-date classes get reused by incremental Java compilation */
+                if (!canCompileJavaIncrementally()) {
+                    FileUtil.deleteFile(yq.compiledClassesPath);
+                    FileUtil.deleteFile(getIncrementalJavaCompilationStateFile().getAbsolutePath());
+                }
+                FileUtil.deleteFile(yq.proguardClassesPath);
+                FileUtil.deleteFile(yq.binDirectoryPath + File.separator + "dex");
+                FileUtil.makeDir(yq.compiledClassesPath);
+            }
+            case STAGE_DEX -> {
+                /* R8 outputs DEX files while processing classes already */
+                if (!(proguard.isShrinkingEnabled() && proguard.isR8Enabled())) {
+                    FileUtil.deleteFile(yq.binDirectoryPath + File.separator + "dex");
+                }
+                for (String mergedDexFile : FileUtil.listFiles(yq.binDirectoryPath, "dex")) {
+                    FileUtil.deleteFile(mergedDexFile);
+                }
+            }
+            default -> {
+            }
+        }
+    }
+
     /**
      * Compile Java classes into DEX file(s)
      *
@@ -228,6 +491,13 @@ public class ProjectBuilder {
         FileUtil.makeDir(yq.binDirectoryPath + File.separator + "dex");
         if (proguard.isShrinkingEnabled() && proguard.isR8Enabled()) return;
 
+        try (BuildTrace.Span span = buildTrace.begin("dex", "Dex classes").arg("dexer", isD8Enabled() ? "D8" : "Dx")) {
+            runDexer();
+            span.bytesOut(getTotalLength(FileUtil.listFiles(yq.binDirectoryPath + File.separator + "dex", "dex")));
+        }
+    }
+
+    private void runDexer() throws Exception {
         if (isD8Enabled()) {
             long savedTimeMillis = System.currentTimeMillis();
             try {
@@ -239,24 +509,26 @@ public class ProjectBuilder {
             }
         } else {
             long savedTimeMillis = System.currentTimeMillis();
-            List<String> args = Arrays.asList(
-                    "--debug",
-                    "--verbose",
-                    "--multi-dex",
-                    "--output=" + yq.binDirectoryPath + File.separator + "dex",
-                    proguard.isShrinkingEnabled() ? yq.proguardClassesPath : yq.compiledClassesPath
-            );
+            List<String> args = new ArrayList<>();
+            args.add("--debug");
+            if (build_settings.getValue(BuildSettings.SETTING_VERBOSE_DX,
+                    BuildSettings.SETTING_GENERIC_VALUE_FALSE).equals(BuildSettings.SETTING_GENERIC_VALUE_TRUE)) {
+                args.add("--verbose");
+            }
+            /* Sizes both the class translator and the DEX writer pools */
+            args.add("--num-threads=" + Runtime.getRuntime().availableProcessors());
 
             try {
-                LogUtil.d(TAG, "Running Dx with these arguments: " + args);
-
                 Main.clearInternTables();
-                Main.Arguments arguments = new Main.Arguments();
-                Method parseMethod = Main.Arguments.class.getDeclaredMethod("parse", String[].class);
-                parseMethod.setAccessible(true);
-                parseMethod.invoke(arguments, (Object) args.toArray(new String[0]));
-
-                Main.run(arguments);
+                /* Only parts of the classes that changed since the last build get dexed */
+                if (!isIncrementalBuildEnabled() || proguard.isShrinkingEnabled()
+                        || !DxCompiler.compileDexFilesWithCache(this, args)) {
+                    args.add("--multi-dex");
+                    args.add("--output=" + yq.binDirectoryPath + File.separator + "dex");
+                    args.add(proguard.isShrinkingEnabled() ? yq.proguardClassesPath : yq.compiledClassesPath);
+                    LogUtil.d(TAG, "Running Dx with these arguments: " + args);
+                    DxCompiler.run(args);
+                }
                 LogUtil.d(TAG, "Dx took " + (System.currentTimeMillis() - savedTimeMillis) + " ms");
             } catch (Exception e) {
                 LogUtil.e(TAG, "Dx failed to process .class files", e);
@@ -362,131 +634,150 @@ public class ProjectBuilder {
     /**
      * Dexes libraries.
      *
+     * @param firstDexNumber Number of the first DEX file to write, e.g. 1 for <code>classes.dex</code>
      * @return List of result DEX files which were merged or couldn't be merged with others.
      * @throws Exception Thrown if merging had problems
      */
-    private Collection<File> dexLibraries(File outputDirectory, List<File> dexes) throws Exception {
-        int lastDexNumber = 1;
-        String nextMergedDexFilename;
-        Collection<File> resultDexFiles = new LinkedList<>();
-        LinkedList<Dex> dexObjects = new LinkedList<>();
-        Iterator<File> toMergeIterator = dexes.iterator();
-
-        List<FieldId> mergedDexFields;
-        List<MethodId> mergedDexMethods;
-        List<ProtoId> mergedDexProtos;
-        List<Integer> mergedDexTypes;
-
-        {
-            // Closable gets closed automatically
-            Dex firstDex = new Dex(new FileInputStream(toMergeIterator.next()));
-            dexObjects.add(firstDex);
-            mergedDexFields = new LinkedList<>(firstDex.fieldIds());
-            mergedDexMethods = new LinkedList<>(firstDex.methodIds());
-            mergedDexProtos = new LinkedList<>(firstDex.protoIds());
-            mergedDexTypes = new LinkedList<>(firstDex.typeIds());
-        }
-
-        while (toMergeIterator.hasNext()) {
-            File dexFile = toMergeIterator.next();
-            nextMergedDexFilename = lastDexNumber == 1 ? "classes.dex" : "classes" + lastDexNumber + ".dex";
-
-            // Closable gets closed automatically
-            Dex dex = new Dex(new FileInputStream(dexFile));
-
-            boolean canMerge = true;
-            List<FieldId> newDexFieldIds = new LinkedList<>();
-            List<MethodId> newDexMethodIds = new LinkedList<>();
-            List<ProtoId> newDexProtoIds = new LinkedList<>();
-            List<Integer> newDexTypeIds = new LinkedList<>();
-
-            bruh:
-            {
-                for (FieldId fieldId : dex.fieldIds()) {
-                    if (!mergedDexFields.contains(fieldId)) {
-                        if (mergedDexFields.size() + newDexFieldIds.size() + 1 > 0xffff) {
-                            LogUtil.d(TAG, "Can't merge DEX file to " + nextMergedDexFilename +
-                                    " because it has too many new field IDs. "
-                                    + nextMergedDexFilename + " will have " + mergedDexFields.size() + " field IDs");
-                            canMerge = false;
-                            break bruh;
-                        } else {
-                            newDexFieldIds.add(fieldId);
-                        }
-                    }
-                }
+    private Collection<File> dexLibraries(File outputDirectory, List<File> dexes, int firstDexNumber) throws Exception {
+        int lastDexNumber = firstDexNumber;
+        String nextMergedDexFilename = getDexFilename(firstDexNumber);
+        DexMergePlanner planner = new DexMergePlanner();
+
+        /* Plan all groups first, they're independent of each other and can be merged concurrently */
+        List<List<Dex>> groups = new ArrayList<>();
+        List<Dex> group = new ArrayList<>();
+        for (int i = 0; i < dexes.size(); i++) {
+            Dex dex = Dex.map(dexes.get(i));
+
+            if (planner.tryAdd(dex, nextMergedDexFilename)) {
+                if (i > 0) LogUtil.d(TAG, "Merging DEX #" + i + " as well to " + nextMergedDexFilename);
+            } else {
+                groups.add(group);
+                group = new ArrayList<>();
 
-                for (MethodId methodId : dex.methodIds()) {
-                    if (!newDexMethodIds.contains(methodId)) {
-                        if (mergedDexMethods.size() + newDexMethodIds.size() + 1 > 0xffff) {
-                            LogUtil.d(TAG, "Can't merge DEX file to " + nextMergedDexFilename +
-                                    " because it has too many new method IDs. "
-                                    + nextMergedDexFilename + " will have " + mergedDexMethods.size() + " method IDs");
-                            canMerge = false;
-                            break bruh;
-                        } else {
-                            newDexMethodIds.add(methodId);
-                        }
-                    }
-                }
+                lastDexNumber++;
+                nextMergedDexFilename = getDexFilename(lastDexNumber);
+                planner.reset();
+                planner.tryAdd(dex, nextMergedDexFilename);
+            }
+            group.add(dex);
+        }
+        if (!group.isEmpty()) {
+            groups.add(group);
+        }
 
-                for (ProtoId protoId : dex.protoIds()) {
-                    if (!newDexProtoIds.contains(protoId)) {
-                        if (mergedDexProtos.size() + newDexProtoIds.size() + 1 > 0xffff) {
-                            LogUtil.d(TAG, "Can't merge DEX file to " + nextMergedDexFilename +
-                                    " because it has too many new proto IDs. "
-                                    + nextMergedDexFilename + " will have " + mergedDexProtos.size() + " proto IDs");
-                            canMerge = false;
-                            break bruh;
-                        } else {
-                            newDexProtoIds.add(protoId);
-                        }
-                    }
-                }
+        List<File> resultDexFiles = new ArrayList<>();
+        List<Callable<Void>> mergeTasks = new ArrayList<>();
+        for (int i = 0; i < groups.size(); i++) {
+            File target = new File(outputDirectory, getDexFilename(firstDexNumber + i));
+            List<Dex> groupDexes = groups.get(i);
+            resultDexFiles.add(target);
+            mergeTasks.add(() -> {
+                mergeDexes(target, groupDexes);
+                return null;
+            });
+        }
 
-                for (Integer typeId : dex.typeIds()) {
-                    if (!newDexTypeIds.contains(typeId)) {
-                        if (mergedDexTypes.size() + newDexProtoIds.size() + 1 > 0xffff) {
-                            LogUtil.d(TAG, "Can't merge DEX file to " + nextMergedDexFilename +
-                                    " because it has too many new type IDs. "
-                                    + nextMergedDexFilename + " will have " + mergedDexTypes.size() + " type IDs");
-                            canMerge = false;
-                            break bruh;
-                        } else {
-                            newDexTypeIds.add(typeId);
-                        }
-                    }
+        int threads = hasMemoryForParallelSteps() ? Math.min(mergeTasks.size(), MAX_PARALLEL_DEX_MERGES) : 1;
+        if (threads == 1) {
+            for (Callable<Void> mergeTask : mergeTasks) {
+                mergeTask.call();
+            }
+        } else if (!mergeTasks.isEmpty()) {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                for (Future<Void> future : executor.invokeAll(mergeTasks)) {
+                    future.get();
                 }
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception exception) throw exception;
+                throw e;
+            } finally {
+                executor.shutdownNow();
             }
+        }
+
+        return resultDexFiles;
+    }
 
-            if (canMerge) {
-                LogUtil.d(TAG, "Merging DEX #" + dexes.indexOf(dexFile) + " as well to " + nextMergedDexFilename);
-                dexObjects.add(dex);
-                mergedDexFields.addAll(newDexFieldIds);
-                mergedDexMethods.addAll(newDexMethodIds);
-                mergedDexProtos.addAll(newDexProtoIds);
-                mergedDexTypes.addAll(newDexTypeIds);
+    /**
+     * Merges DEX files like {@link #dexLibraries(File, List, int)}, but reuses the merged library DEX
+     * files of earlier builds. Only the last, partially filled library DEX file gets merged again,
+     * together with the project's own DEX files.
+     */
+    private void dexLibrariesWithCachedBundle(File outputDirectory, List<File> libraryDexes, List<File> projectDexes) throws Exception {
+        if (libraryDexes.isEmpty()) {
+            if (!projectDexes.isEmpty()) dexLibraries(outputDirectory, projectDexes, 1);
+            return;
+        }
+
+        File bundle = getLibraryDexBundle(libraryDexes);
+        int bundleDexCount = 0;
+        while (new File(bundle, getDexFilename(bundleDexCount + 1)).isFile()) {
+            bundleDexCount++;
+        }
+        for (int i = 1; i < bundleDexCount; i++) {
+            FileUtil.copyFile(new File(bundle, getDexFilename(i)).getAbsolutePath(),
+                    new File(outputDirectory, getDexFilename(i)).getAbsolutePath());
+        }
+
+        List<File> dexesToMerge = new ArrayList<>();
+        dexesToMerge.add(new File(bundle, getDexFilename(bundleDexCount)));
+        dexesToMerge.addAll(projectDexes);
+        dexLibraries(outputDirectory, dexesToMerge, bundleDexCount);
+    }
+
+    /**
+     * @return Directory with the merged DEX files of <code>libraryDexes</code>, which are only merged
+     * again if the libraries changed
+     */
+    private File getLibraryDexBundle(List<File> libraryDexes) throws Exception {
+        ContentHasher hasher = new ContentHasher();
+        for (File libraryDex : libraryDexes) {
+            hasher.putFileMetadata(libraryDex);
+        }
+        String hash = hasher.hash();
+        File bundlesDirectory = new File(context.getCacheDir(), "mergedLibraryDexes");
+        File bundle = new File(bundlesDirectory, hash);
+
+        try (BuildTrace.Span span = buildTrace.begin("dex", "Get merged library DEX files")) {
+            span.cacheHit(bundle.isDirectory()).arg("libraries", libraryDexes.size());
+            if (bundle.isDirectory()) {
+                LogUtil.d(TAG, "Reusing merged DEX files of " + libraryDexes.size() + " libraries");
+                if (!bundle.setLastModified(System.currentTimeMillis())) {
+                    LogUtil.w(TAG, "Couldn't update last use of " + bundle.getAbsolutePath());
+                }
             } else {
-                File target = new File(outputDirectory, nextMergedDexFilename);
-                mergeDexes(target, dexObjects);
-                resultDexFiles.add(target);
-                dexObjects.clear();
-                dexObjects.add(dex);
-
-                mergedDexFields = new ArrayList<>(dex.fieldIds());
-                mergedDexMethods = new ArrayList<>(dex.methodIds());
-                mergedDexProtos = new ArrayList<>(dex.protoIds());
-                mergedDexTypes = new ArrayList<>(dex.typeIds());
-                lastDexNumber++;
+                File temporaryBundle = new File(bundlesDirectory, hash + ".tmp");
+                FileUtil.deleteFile(temporaryBundle.getAbsolutePath());
+                FileUtil.makeDir(temporaryBundle.getAbsolutePath());
+                dexLibraries(temporaryBundle, libraryDexes, 1);
+                if (!temporaryBundle.renameTo(bundle)) {
+                    throw new IOException("Couldn't move merged library DEX files to " + bundle.getAbsolutePath());
+                }
+
+                File[] bundles = bundlesDirectory.listFiles(File::isDirectory);
+                if (bundles != null && bundles.length > MAX_CACHED_LIBRARY_DEX_BUNDLES) {
+                    Arrays.sort(bundles, (first, second) -> Long.compare(second.lastModified(), first.lastModified()));
+                    for (int i = MAX_CACHED_LIBRARY_DEX_BUNDLES; i < bundles.length; i++) {
+                        FileUtil.deleteFile(bundles[i].getAbsolutePath());
+                    }
+                }
             }
         }
-        if (!dexObjects.isEmpty()) {
-            File file = new File(outputDirectory, lastDexNumber == 1 ? "classes.dex" : "classes" + lastDexNumber + ".dex");
-            mergeDexes(file, dexObjects);
-            resultDexFiles.add(file);
+        return bundle;
+    }
+
+    private static long getTotalLength(List<String> paths) {
+        long length = 0;
+        for (String path : paths) {
+            length += new File(path).length();
         }
+        return length;
+    }
 
-        return resultDexFiles;
+    private static String getDexFilename(int dexNumber) {
+        return dexNumber == 1 ? "classes.dex" : "classes" + dexNumber + ".dex";
     }
 
     /**
@@ -508,6 +799,79 @@ public class ProjectBuilder {
     public void compileJavaCode() throws zy, IOException {
         long savedTimeMillis = System.currentTimeMillis();
 
+        ArrayList<String> sourceRoots = new ArrayList<>();
+        sourceRoots.add(yq.javaFilesPath);
+        sourceRoots.add(yq.rJavaDirectoryPath);
+        String pathJava = fpu.getPathJava(yq.sc_id);
+        if (FileUtil.isExistFile(pathJava)) {
+            sourceRoots.add(pathJava);
+        }
+        String pathBroadcast = fpu.getPathBroadcast(yq.sc_id);
+        if (FileUtil.isExistFile(pathBroadcast)) {
+            sourceRoots.add(pathBroadcast);
+        }
+        String pathService = fpu.getPathService(yq.sc_id);
+        if (FileUtil.isExistFile(pathService)) {
+            sourceRoots.add(pathService);
+        }
+
+        /* Avoid "package ;" line in that file causing issues while compiling */
+        File rJavaFileWithoutPackage = new File(yq.rJavaDirectoryPath, "R.java");
+        if (rJavaFileWithoutPackage.exists() && !rJavaFileWithoutPackage.delete()) {
+            LogUtil.w(TAG, "Failed to delete file " + rJavaFileWithoutPackage.getAbsolutePath());
+        }
+
+        try (BuildTrace.Span span = buildTrace.begin("java", "Compile Java")) {
+            if (canCompileJavaIncrementally()) {
+                IncrementalJavaCompilation compilation = new IncrementalJavaCompilation(new File(yq.compiledClassesPath),
+                        getIncrementalJavaCompilationStateFile(), getJavaCompilerOptionsHash());
+                IncrementalJavaCompilation.Plan plan = compilation.plan(sourceRoots);
+                span.arg("incremental", !plan.isFullCompilation())
+                        .arg("compiledSources", plan.getSourcesToCompile().size());
+                if (!plan.getSourcesToCompile().isEmpty()) {
+                    runEclipseCompiler(plan.isFullCompilation() ? sourceRoots : plan.getSourcesToCompile());
+                    if (!compilation.finish(plan)) {
+                        plan = compilation.fullCompilationPlan(plan);
+                        span.arg("fellBackToFullCompilation", true);
+                        runEclipseCompiler(sourceRoots);
+                        compilation.finish(plan);
+                    }
+                }
+            } else {
+                span.arg("incremental", false);
+                FileUtil.deleteFile(getIncrementalJavaCompilationStateFile().getAbsolutePath());
+                runEclipseCompiler(sourceRoots);
+            }
+        }
+        LogUtil.d(TAG, "Compiling Java files took " + (System.currentTimeMillis() - savedTimeMillis) + " ms");
+    }
+
+    /**
+     * @return If only changed Java source files and the ones depending on them need to be compiled,
+     * reusing classes of previous builds. Kotlin and StringFog also write to the classes directory,
+     * so those builds are always full.
+     */
+    private boolean canCompileJavaIncrementally() {
+        return isIncrementalBuildEnabled() && !new StringfogHandler(yq.sc_id).isStringfogEnabled()
+                && !KotlinCompilerUtil.areAnyKtFilesPresent(this);
+    }
+
+    private File getIncrementalJavaCompilationStateFile() {
+        return new File(yq.binDirectoryPath, "incremental" + File.separator + "java.json");
+    }
+
+    private String getJavaCompilerOptionsHash() {
+        ContentHasher hasher = new ContentHasher()
+                .putString(build_settings.getValue(BuildSettings.SETTING_JAVA_VERSION, BuildSettings.SETTING_JAVA_VERSION_1_7))
+                .putString(build_settings.getValue(BuildSettings.SETTING_NO_WARNINGS, BuildSettings.SETTING_GENERIC_VALUE_TRUE));
+        putClasspathMetadata(hasher);
+        return hasher.hash();
+    }
+
+    /**
+     * @param sources Java source files and directories containing them
+     */
+    private void runEclipseCompiler(List<String> sources) throws zy, IOException {
         class EclipseOutOutputStream extends OutputStream {
 
             private final StringBuffer mBuffer = new StringBuffer();
@@ -551,39 +915,27 @@ public class ProjectBuilder {
             }
             args.add("-d");
             args.add(yq.compiledClassesPath);
+            String classpath = getClasspath();
             args.add("-cp");
-            args.add(getClasspath());
+            args.add(classpath);
             args.add("-proc:none");
-            args.add(yq.javaFilesPath);
-            args.add(yq.rJavaDirectoryPath);
-            String pathJava = fpu.getPathJava(yq.sc_id);
-            if (FileUtil.isExistFile(pathJava)) {
-                args.add(pathJava);
-            }
-            String pathBroadcast = fpu.getPathBroadcast(yq.sc_id);
-            if (FileUtil.isExistFile(pathBroadcast)) {
-                args.add(pathBroadcast);
-            }
-            String pathService = fpu.getPathService(yq.sc_id);
-            if (FileUtil.isExistFile(pathService)) {
-                args.add(pathService);
-            }
-
-            /* Avoid "package ;" line in that file causing issues while compiling */
-            File rJavaFileWithoutPackage = new File(yq.rJavaDirectoryPath, "R.java");
-            if (rJavaFileWithoutPackage.exists() && !rJavaFileWithoutPackage.delete()) {
-                LogUtil.w(TAG, "Failed to delete file " + rJavaFileWithoutPackage.getAbsolutePath());
-            }
+            args.addAll(sources);
 
             /* Start compiling */
-            org.eclipse.jdt.internal.compiler.batch.Main main = new org.eclipse.jdt.internal.compiler.batch.Main(outWriter, errWriter, false, null, null);
+            org.eclipse.jdt.internal.compiler.batch.Main main = new org.eclipse.jdt.internal.compiler.batch.Main(outWriter, errWriter, false, null, null) {
+                @Override
+                public FileSystem getLibraryAccess() {
+                    /* android.jar and libraries' JARs are read through ClasspathIndex, which keeps them across builds */
+                    checkedClasspaths = IndexedClasspathJar.replaceIndexedJars(checkedClasspaths, classpath);
+                    return super.getLibraryAccess();
+                }
+            };
             LogUtil.d(TAG, "Running Eclipse compiler with these arguments: " + args);
             main.compile(args.toArray(new String[0]));
 
             LogUtil.d(TAG, "System.out of Eclipse compiler: " + outOutputStream.getOut());
             if (main.globalErrorsCount <= 0) {
                 LogUtil.d(TAG, "System.err of Eclipse compiler: " + errOutputStream.getOut());
-                LogUtil.d(TAG, "Compiling Java files took " + (System.currentTimeMillis() - savedTimeMillis) + " ms");
             } else {
                 LogUtil.e(TAG, "Failed to compile Java files");
                 throw new zy(errOutputStream.getOut());
@@ -591,75 +943,117 @@ public class ProjectBuilder {
         }
     }
 
+    /**
+     * Builds the unsigned APK to {@link yq#unsignedAlignedApkPath}. Its entries are aligned already.
+     */
     public void buildApk() throws By {
-        String firstDexPath = dexesToAddButNotMerge.isEmpty() ? yq.classesDexPath : dexesToAddButNotMerge.remove(0).getAbsolutePath();
+        buildApk(new File(yq.unsignedAlignedApkPath), null);
+    }
+
+    /**
+     * Builds the APK signed with testkey, which gets aligned and signed while it's being written.
+     */
+    public void buildApkSignedWithTestkey(String outputPath) throws By {
+        ApkSignerEngine signer;
         try {
-            ApkBuilder apkBuilder = new ApkBuilder(new File(yq.unsignedUnalignedApkPath), new File(yq.resourcesApkPath), new File(firstDexPath), null, null, System.out);
+            signer = ApkSigner.createTestKeySignerEngine(settings.getMinSdkVersion());
+        } catch (GeneralSecurityException | IOException e) {
+            throw new By("Couldn't load testkey: " + e.getMessage());
+        }
+        buildApk(new File(outputPath), signer);
+    }
+
+    private void buildApk(File outputFile, ApkSignerEngine signer) throws By {
+        /* Every build gets here, so drop indexes of JARs earlier builds used but this one doesn't */
+        ClasspathIndex.getInstance().retainOnly(getClasspath());
+
+        String firstDexPath = dexesToAddButNotMerge.isEmpty() ? yq.classesDexPath : dexesToAddButNotMerge.remove(0).getAbsolutePath();
+        try (BuildTrace.Span span = buildTrace.begin("apk", "Build APK").arg("signed", signer != null);
+             ApkWriter apkWriter = new ApkWriter(outputFile, signer)) {
+            apkWriter.addZip(new File(yq.resourcesApkPath));
+            apkWriter.addFile(new File(firstDexPath), "classes.dex");
 
             for (Jp library : builtInLibraryManager.getLibraries()) {
-                apkBuilder.addResourcesFromJar(BuiltInLibraries.getLibraryClassesJarPath(library.getName()));
+                apkWriter.addResourcesFromJar(BuiltInLibraries.getLibraryClassesJarPath(library.getName()));
             }
 
             for (String jarPath : mll.getJarLocalLibrary().split(":")) {
                 if (!jarPath.trim().isEmpty()) {
-                    apkBuilder.addResourcesFromJar(new File(jarPath));
+                    apkWriter.addResourcesFromJar(new File(jarPath));
                 }
             }
 
             /* Add project's native libraries */
             File nativeLibrariesDirectory = new File(fpu.getPathNativelibs(yq.sc_id));
             if (nativeLibrariesDirectory.exists()) {
-                apkBuilder.addNativeLibraries(nativeLibrariesDirectory);
+                apkWriter.addNativeLibraries(nativeLibrariesDirectory);
             }
 
             /* Add Local libraries' native libraries */
             for (String nativeLibraryDirectory : mll.getNativeLibs()) {
-                apkBuilder.addNativeLibraries(new File(nativeLibraryDirectory));
+                apkWriter.addNativeLibraries(new File(nativeLibraryDirectory));
             }
 
             if (dexesToAddButNotMerge.isEmpty()) {
                 List<String> dexFiles = FileUtil.listFiles(yq.binDirectoryPath, "dex");
                 for (String dexFile : dexFiles) {
                     if (!Uri.fromFile(new File(dexFile)).getLastPathSegment().equals("classes.dex")) {
-                        apkBuilder.addFile(new File(dexFile), Uri.parse(dexFile).getLastPathSegment());
+                        apkWriter.addFile(new File(dexFile), Uri.parse(dexFile).getLastPathSegment());
                     }
                 }
             } else {
                 int dexNumber = 2;
 
                 for (File dexFile : dexesToAddButNotMerge) {
-                    apkBuilder.addFile(dexFile, "classes" + dexNumber + ".dex");
+                    apkWriter.addFile(dexFile, "classes" + dexNumber + ".dex");
                     dexNumber++;
                 }
             }
 
-            apkBuilder.setDebugMode(false);
-            apkBuilder.sealApk();
-        } catch (ApkCreationException | SealedApkException e) {
-            throw new By(e.getMessage());
-        } catch (DuplicateFileException e) {
+            apkWriter.finish();
+            span.bytesOut(outputFile.length());
+        } catch (ApkWriter.DuplicateEntryException e) {
+            FileUtil.deleteFile(outputFile.getAbsolutePath());
             String message = "Duplicate files from two libraries detected \r\n";
             message += "File1: " + e.getFile1() + " \r\n";
             message += "File2: " + e.getFile2() + " \r\n";
             message += "Archive path: " + e.getArchivePath();
             throw new By(message);
+        } catch (IOException e) {
+            FileUtil.deleteFile(outputFile.getAbsolutePath());
+            throw new By("Couldn't build APK: " + e.getMessage());
         }
-        LogUtil.d(TAG, "Time passed since starting to compile resources until building the unsigned APK: " +
+        LogUtil.d(TAG, "Time passed since starting to compile resources until building the " +
+                (signer != null ? "signed" : "unsigned") + " APK: " +
                 (System.currentTimeMillis() - timestampResourceCompilationStarted) + " ms");
     }
 
     /**
-     * Either merges DEX files to as few as possible, or adds list of DEX files to add to the APK to
-     * {@link #dexesToAddButNotMerge}.
-     * <p>
-     * Will merge DEX files if either the project's minSdkVersion is lower than 21, or if {@link jq#isDebugBuild}
-     * of {@link yq#N} in {@link #yq} is false.
-     *
-     * @throws Exception Thrown if merging failed
+     * Merges libraries' DEX files ahead of {@link #getDexFilesReady()}, which reuses them. This doesn't
+     * depend on the project's classes, so it can run while they're being compiled. Does nothing if
+     * DEX files won't get merged.
      */
-    public void getDexFilesReady() throws Exception {
-        long savedTimeMillis = System.currentTimeMillis();
-        ArrayList<File> dexes = new ArrayList<>();
+    public void prepareLibraryDexBundle() throws Exception {
+        if (!willMergeDexFiles()) return;
+
+        List<File> libraryDexes = getLibraryDexes();
+        if (!libraryDexes.isEmpty()) {
+            getLibraryDexBundle(libraryDexes);
+        }
+    }
+
+    private boolean willMergeDexFiles() {
+        return settings.getMinSdkVersion() < 21 || !yq.N.isDebugBuild;
+    }
+
+    /**
+     * @return DEX files of the MultiDex library if needed, HTTP legacy if wanted, and all used built-in
+     * and local libraries
+     */
+    private List<File> getLibraryDexes() {
+        if (libraryDexes != null) return libraryDexes;
+
+        List<File> dexes = new ArrayList<>();
 
         /* Add AndroidX MultiDex library if needed */
         if (settings.getMinSdkVersion() < 21) {
@@ -715,18 +1109,42 @@ public class ProjectBuilder {
             }
         }
 
+        libraryDexes = dexes;
+        return libraryDexes;
+    }
+
+    /**
+     * Either merges DEX files to as few as possible, or adds list of DEX files to add to the APK to
+     * {@link #dexesToAddButNotMerge}.
+     * <p>
+     * Will merge DEX files if either the project's minSdkVersion is lower than 21, or if {@link jq#isDebugBuild}
+     * of {@link yq#N} in {@link #yq} is false.
+     *
+     * @throws Exception Thrown if merging failed
+     */
+    public void getDexFilesReady() throws Exception {
+        long savedTimeMillis = System.currentTimeMillis();
+        List<File> libraryDexes = getLibraryDexes();
+        ArrayList<File> dexes = new ArrayList<>(libraryDexes);
+
+        List<File> projectDexes = new ArrayList<>();
         for (String file : FileUtil.listFiles(yq.binDirectoryPath + File.separator + "dex", "dex")) {
-            dexes.add(new File(file));
+            projectDexes.add(new File(file));
         }
+        dexes.addAll(projectDexes);
 
         LogUtil.d(TAG, "Will merge these " + dexes.size() + " DEX files to classes.dex: " + dexes);
 
-        if (settings.getMinSdkVersion() < 21 || !yq.N.isDebugBuild) {
-            dexLibraries(new File(yq.binDirectoryPath), dexes);
-            LogUtil.d(TAG, "Merging DEX files took " + (System.currentTimeMillis() - savedTimeMillis) + " ms");
-        } else {
-            dexesToAddButNotMerge = dexes;
-            LogUtil.d(TAG, "Skipped merging DEX files due to debug build with minSdkVersion >= 21");
+        try (BuildTrace.Span span = buildTrace.begin("dex", "Get DEX files ready")) {
+            span.arg("dexFiles", dexes.size()).arg("merged", willMergeDexFiles());
+            if (willMergeDexFiles()) {
+                dexLibrariesWithCachedBundle(new File(yq.binDirectoryPath), libraryDexes, projectDexes);
+                span.bytesOut(getTotalLength(FileUtil.listFiles(yq.binDirectoryPath, "dex")));
+                LogUtil.d(TAG, "Merging DEX files took " + (System.currentTimeMillis() - savedTimeMillis) + " ms");
+            } else {
+                dexesToAddButNotMerge = dexes;
+                LogUtil.d(TAG, "Skipped merging DEX files due to debug build with minSdkVersion >= 21");
+            }
         }
     }
 
@@ -800,18 +1218,10 @@ public class ProjectBuilder {
         return builtInLibraryManager;
     }
 
-    /**
-     * Sign the debug APK file with testkey.
-     * <p>
-     * This method uses apksigner, but kellinwood's zipsigner as fallback.
-     */
-    public void signDebugApk() throws GeneralSecurityException, IOException, ClassNotFoundException, IllegalAccessException, InstantiationException {
-        TestkeySignBridge.signWithTestkey(yq.unsignedUnalignedApkPath, yq.finalToInstallApkPath);
-    }
-
     private void mergeDexes(File target, List<Dex> dexes) throws IOException {
-        DexMerger merger = new DexMerger(dexes.toArray(new Dex[0]), CollisionPolicy.KEEP_FIRST, new DxContext());
-        merger.merge().writeTo(target);
+        /* Written straight to the target file, so the merged DEX file doesn't have to fit into the heap */
+        DexMerger merger = new DexMerger(dexes.toArray(new Dex[0]), CollisionPolicy.KEEP_FIRST, new DxContext(), target);
+        merger.merge();
     }
 
     /**
@@ -988,22 +1398,6 @@ public class ProjectBuilder {
         }
     }
 
-    public void runZipalign(String inPath, String outPath) throws By {
-        LogUtil.d(TAG, "About to zipalign " + inPath + " to " + outPath);
-        long savedTimeMillis = System.currentTimeMillis();
-
-        try (RandomAccessFile in = new RandomAccessFile(inPath, "r");
-             FileOutputStream out = new FileOutputStream(outPath)) {
-            ZipAlign.alignZip(in, out);
-        } catch (IOException e) {
-            throw new By("Couldn't run zipalign on " + inPath + " with output path " + outPath + ": " + Log.getStackTraceString(e));
-        } catch (InvalidZipException e) {
-            throw new By("Failed to zipalign due to the given zip being invalid: " + Log.getStackTraceString(e));
-        }
-
-        LogUtil.d(TAG, "zipalign took " + (System.currentTimeMillis() - savedTimeMillis) + " ms");
-    }
-
     public void setBuildAppBundle(boolean buildAppBundle) {
         this.buildAppBundle = buildAppBundle;
     }
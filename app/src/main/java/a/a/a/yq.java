@@ -16,17 +16,27 @@ import com.besome.sketch.beans.ViewBean;
 import com.besome.sketch.editor.manage.library.material3.Material3LibraryManager;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
 import mod.hey.studios.build.BuildSettings;
 import mod.hey.studios.project.ProjectSettings;
 import mod.hey.studios.util.ProjectFile;
 import mod.hilal.saif.blocks.CommandBlock;
+import mod.jbk.build.incremental.ContentHasher;
+import mod.jbk.build.incremental.HashManifest;
 import mod.pranav.viewbinding.ViewBindingBuilder;
 import pro.sketchware.SketchApplication;
 import pro.sketchware.util.library.BuiltInLibraryManager;
@@ -185,6 +195,11 @@ public class yq {
     private final Material3LibraryManager material3LibraryManager;
     private final oB fileUtil;
     private final Context context;
+    /**
+     * Paths of files generated by the current call to {@link #b(hC, eC, iC, BuiltInLibraryManager)},
+     * mapped to their content hashes
+     */
+    private final HashMap<String, String> generatedFileHashes = new HashMap<>();
     public jq N;
     public boolean generateDataBindingClasses;
     public boolean isAndroidStudioExport;
@@ -292,12 +307,12 @@ public class yq {
      * Generates top-level build.gradle, build.gradle for module ':app' and settings.gradle files.
      */
     public void generateGradleFiles() {
-        fileUtil.b(projectMyscPath + File.separator + "app" + File.separator + "build.gradle",
+        writeIfChanged(projectMyscPath + File.separator + "app" + File.separator + "build.gradle",
                 Lx.getBuildGradleString(VAR_DEFAULT_TARGET_SDK_VERSION, VAR_DEFAULT_MIN_SDK_VERSION, projectSettings.getValue(ProjectSettings.SETTING_TARGET_SDK_VERSION, String.valueOf(VAR_DEFAULT_TARGET_SDK_VERSION)), N, projectSettings.getValue(ProjectSettings.SETTING_ENABLE_VIEWBINDING, ProjectSettings.SETTING_GENERIC_VALUE_FALSE).equals(ProjectSettings.SETTING_GENERIC_VALUE_TRUE)));
-        fileUtil.b(projectMyscPath + File.separator + "settings.gradle", Lx.a());
-        fileUtil.b(projectMyscPath + File.separator + "build.gradle", Lx.c("8.12.0", "4.4.3"));
+        writeIfChanged(projectMyscPath + File.separator + "settings.gradle", Lx.a());
+        writeIfChanged(projectMyscPath + File.separator + "build.gradle", Lx.c("8.12.0", "4.4.3"));
 
-        fileUtil.b(projectMyscPath + File.separator + "gradle.properties", """
+        writeIfChanged(projectMyscPath + File.separator + "gradle.properties", """
                 android.enableR8.fullMode=false
                 android.enableJetifier=true
                 android.useAndroidX=true
@@ -344,7 +359,7 @@ public class yq {
 
     public void createLauncherIconXml(String content) {
         try {
-            fileUtil.b(resDirectoryPath + File.separator + "mipmap-anydpi-v26" + File.separator + "ic_launcher.xml", content);
+            writeIfChanged(resDirectoryPath + File.separator + "mipmap-anydpi-v26" + File.separator + "ic_launcher.xml", content);
         } catch (Exception e2) {
             e2.printStackTrace();
         }
@@ -367,7 +382,7 @@ public class yq {
                     "debug" + File.separator + "DebugActivity.java"
             );
             debugActivityContent = PACKAGE_PLACEHOLDER_PATTERN.matcher(debugActivityContent).replaceAll(packageName);
-            fileUtil.b(javaFilesPath + File.separator + packageNameAsFolders + File.separator + "DebugActivity.java", debugActivityContent);
+            writeIfChanged(javaFilesPath + File.separator + packageNameAsFolders + File.separator + "DebugActivity.java", debugActivityContent);
         }
 
         String customApplicationClassName = new ProjectSettings(sc_id).getValue(
@@ -428,7 +443,7 @@ public class yq {
                         "import android.util.Log;", imports);
             }
 
-            fileUtil.b(javaFilesPath + File.separator
+            writeIfChanged(javaFilesPath + File.separator
                     + customClassPackageAsFolders + File.separator
                     + customClassSimpleName + ".java", sketchApplicationFileContent);
         }
@@ -447,7 +462,7 @@ public class yq {
 
                 sketchLoggerFileContent = sketchLoggerFileContent.replace("<?class_name?>", customClassSimpleName);
 
-                fileUtil.b(javaFilesPath + File.separator + packageNameAsFolders + File.separator + "SketchLogger.java",
+                writeIfChanged(javaFilesPath + File.separator + packageNameAsFolders + File.separator + "SketchLogger.java",
                         sketchLoggerFileContent);
             }
         }
@@ -461,15 +476,15 @@ public class yq {
      */
     public void a(String fileName, String fileContent) {
         if (fileName.endsWith("java")) {
-            fileUtil.b(javaFilesPath + File.separator + packageNameAsFolders + File.separator + fileName, fileContent);
+            writeIfChanged(javaFilesPath + File.separator + packageNameAsFolders + File.separator + fileName, fileContent);
         } else if (fileName.equals("AndroidManifest.xml")) {
-            fileUtil.b(androidManifestPath, fileContent);
+            writeIfChanged(androidManifestPath, fileContent);
         } else if (fileName.equals("colors.xml") || fileName.equals("styles.xml") || fileName.equals("strings.xml")) {
-            fileUtil.b(resDirectoryPath + File.separator + "values" + File.separator + fileName, fileContent);
+            writeIfChanged(resDirectoryPath + File.separator + "values" + File.separator + fileName, fileContent);
         } else if (fileName.equals("provider_paths.xml")) {
-            fileUtil.b(resDirectoryPath + File.separator + "xml" + File.separator + fileName, fileContent);
+            writeIfChanged(resDirectoryPath + File.separator + "xml" + File.separator + fileName, fileContent);
         } else {
-            fileUtil.b(layoutFilesPath + File.separator + fileName, fileContent);
+            writeIfChanged(layoutFilesPath + File.separator + fileName, fileContent);
         }
     }
 
@@ -681,6 +696,7 @@ public class yq {
      * Generates the project's files, such as layouts, Java files, but also build.gradle and secrets.xml.
      */
     public void b(hC projectFileManager, eC projectDataManger, iC projectLibraryManager, BuiltInLibraryManager builtInLibraryManager) {
+        generatedFileHashes.clear();
         ArrayList<SrcCodeBean> srcCodeBeans = a(projectFileManager, projectDataManger, builtInLibraryManager);
         if (N.u) {
             XmlBuilder pathsTag = new XmlBuilder("paths");
@@ -726,10 +742,84 @@ public class yq {
                 mx.addString("google_maps_key", projectLibraryManager.e().data, false);
             }
             String filePath = "values/secrets.xml";
-            fileUtil.b(resDirectoryPath + File.separator + filePath,
+            writeIfChanged(resDirectoryPath + File.separator + filePath,
                     CommandBlock.applyCommands(filePath, mx.toCode()));
         }
         generateGradleFiles();
+        deleteStaleGeneratedFiles();
+    }
+
+    /**
+     * Prepares {@link yq#generatedFilesPath} for an incremental build. Generated files are kept, so that
+     * {@link #b(hC, eC, iC, BuiltInLibraryManager)} doesn't have to rewrite unchanged ones, while resources
+     * that get copied from the project are deleted. Everything gets deleted if it's unknown which files
+     * the last build generated.
+     */
+    public void prepareIncrementalSourceGeneration() {
+        if (!getGeneratedFilesManifestFile().isFile()) {
+            FileUtil.deleteFile(generatedFilesPath);
+            return;
+        }
+
+        File[] resourceDirectories = new File(resDirectoryPath).listFiles();
+        if (resourceDirectories != null) {
+            for (File directory : resourceDirectories) {
+                String name = directory.getName();
+                if (name.equals("drawable-xhdpi") || name.equals("raw") || name.startsWith("mipmap")) {
+                    FileUtil.deleteFile(directory.getAbsolutePath());
+                }
+            }
+        }
+        FileUtil.deleteFile(fontsPath);
+    }
+
+    /**
+     * Deletes files that the last build generated, but the current one didn't, e.g. of removed Activities.
+     * Only debug builds remember generated files, as only those are built incrementally.
+     */
+    private void deleteStaleGeneratedFiles() {
+        File manifestFile = getGeneratedFilesManifestFile();
+        HashManifest generatedFiles = new HashManifest(manifestFile);
+        for (String path : generatedFiles.keys()) {
+            if (!generatedFileHashes.containsKey(path)) {
+                FileUtil.deleteFile(path);
+                generatedFiles.remove(path);
+            }
+        }
+
+        if (N.isDebugBuild) {
+            for (Map.Entry<String, String> generatedFile : generatedFileHashes.entrySet()) {
+                generatedFiles.put(generatedFile.getKey(), generatedFile.getValue());
+            }
+            generatedFiles.save();
+        } else {
+            FileUtil.deleteFile(manifestFile.getAbsolutePath());
+        }
+    }
+
+    private File getGeneratedFilesManifestFile() {
+        return new File(binDirectoryPath, "incremental" + File.separator + "generated_files.json");
+    }
+
+    /**
+     * Writes a generated file, unless it already has exactly that content. Unchanged files keep their
+     * modification time that way, so later build steps can skip them.
+     */
+    private void writeIfChanged(String path, String content) {
+        File file = new File(path);
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        generatedFileHashes.put(file.getAbsolutePath(), ContentHasher.hashString(content));
+
+        if (file.isFile() && file.length() == bytes.length) {
+            try {
+                if (Arrays.equals(Files.readAllBytes(file.toPath()), bytes)) {
+                    return;
+                }
+            } catch (IOException e) {
+                Log.w("yq", "Failed to read " + path + ", overwriting it", e);
+            }
+        }
+        fileUtil.b(path, content);
     }
 
     /**
@@ -757,12 +847,28 @@ public class yq {
         // Generate Activities unless a custom version of it exists already
         // at /Internal storage/.sketchware/data/<sc_id>/files/java/
         ArrayList<SrcCodeBean> srcCodeBeans = new ArrayList<>();
+        List<Callable<GeneratedActivity>> activityTasks = new ArrayList<>();
         for (ProjectFileBean activity : projectFileManager.b()) {
             if (!javaFiles.contains(new File(javaDir + activity.getJavaName()))) {
-                srcCodeBeans.add(new SrcCodeBean(activity.getJavaName(),
-                        new Jx(N, activity, projectDataManager).generateCode(isAndroidStudioExport, sc_id)));
+                activityTasks.add(() -> {
+                    CommandBlock.deferXmlCommands();
+                    String code;
+                    try {
+                        code = new Jx(N, activity, projectDataManager).generateCode(isAndroidStudioExport, sc_id);
+                    } catch (RuntimeException e) {
+                        CommandBlock.stopDeferringXmlCommands();
+                        throw e;
+                    }
+                    return new GeneratedActivity(new SrcCodeBean(activity.getJavaName(), code), CommandBlock.stopDeferringXmlCommands());
+                });
             }
         }
+        // XML commands of Activities must be in the commands file before layouts get generated,
+        // so write them in the Activities' order to keep output the same as with serial generation
+        for (GeneratedActivity generatedActivity : generateConcurrently(activityTasks)) {
+            srcCodeBeans.add(generatedActivity.source());
+            CommandBlock.writeXmlCommands(generatedActivity.xmlCommands());
+        }
 
         var path = wq.b(sc_id) + "/command";
         var newXMLCommand = Boolean.parseBoolean(projectSettings.getValue(ProjectSettings.SETTING_NEW_XML_COMMAND, ProjectSettings.SETTING_GENERIC_VALUE_FALSE));
@@ -771,51 +877,37 @@ public class yq {
         }
 
         var viewBindingBuilder = new ViewBindingBuilder(List.of(), new File("."), packageName);
+        boolean viewBindingEnabled = isViewBindingEnable();
 
         // Generate layouts unless a custom version of it exists already
         // at /Internal storage/.sketchware/data/<sc_id>/files/resource/layout/
-        ArrayList<ProjectFileBean> regularLayouts = projectFileManager.b();
-        for (ProjectFileBean layout : regularLayouts) {
+        List<Callable<List<SrcCodeBean>>> layoutTasks = new ArrayList<>();
+        for (ProjectFileBean layout : projectFileManager.b()) {
             String xmlName = layout.getXmlName();
-            Ox ox = new Ox(N, layout);
-            ox.a(eC.a(projectDataManager.d(xmlName)), projectDataManager.h(xmlName));
-            var ogFile = new File(layoutDir + xmlName);
-            if (!layoutFiles.contains(ogFile)) {
-                srcCodeBeans.add(new SrcCodeBean(xmlName, CommandBlock.applyCommands(xmlName, ox.b())));
-
-                if (isViewBindingEnable()) {
-                    var privFile = new File(context.getCacheDir(), xmlName);
-                    FileUtil.writeFile(privFile.getAbsolutePath(), CommandBlock.applyCommands(xmlName, ox.b()));
-                    var code = viewBindingBuilder.generateBindingForLayout(privFile);
-                    srcCodeBeans.add(new SrcCodeBean(
-                            ViewBindingBuilder.generateFileNameForLayout(xmlName.replace(".xml", "")) + ".java",
-                            CommandBlock.applyCommands(xmlName, code)
-                    ));
-                }
+            if (!layoutFiles.contains(new File(layoutDir + xmlName))) {
+                layoutTasks.add(() -> {
+                    Ox ox = new Ox(N, layout);
+                    ox.a(eC.a(projectDataManager.d(xmlName)), projectDataManager.h(xmlName));
+                    return generateLayout(xmlName, ox, viewBindingBuilder, viewBindingEnabled);
+                });
             }
         }
 
-        ArrayList<ProjectFileBean> customViewFiles = projectFileManager.c();
-        for (ProjectFileBean customViewFile : customViewFiles) {
+        for (ProjectFileBean customViewFile : projectFileManager.c()) {
             String xmlName = customViewFile.getXmlName();
-            Ox ox = new Ox(N, customViewFile);
-            ox.a(eC.a(projectDataManager.d(xmlName)));
-            var ogFile = new File(layoutDir + xmlName);
-            if (!layoutFiles.contains(ogFile)) {
-                srcCodeBeans.add(new SrcCodeBean(xmlName, CommandBlock.applyCommands(xmlName, ox.b())));
-
-                if (isViewBindingEnable()) {
-                    var privFile = new File(context.getCacheDir(), xmlName);
-                    FileUtil.writeFile(privFile.getAbsolutePath(), CommandBlock.applyCommands(xmlName, ox.b()));
-                    var code = viewBindingBuilder.generateBindingForLayout(privFile);
-                    srcCodeBeans.add(new SrcCodeBean(
-                            ViewBindingBuilder.generateFileNameForLayout(xmlName.replace(".xml", "")) + ".java",
-                            CommandBlock.applyCommands(xmlName, code)
-                    ));
-                }
+            if (!layoutFiles.contains(new File(layoutDir + xmlName))) {
+                layoutTasks.add(() -> {
+                    Ox ox = new Ox(N, customViewFile);
+                    ox.a(eC.a(projectDataManager.d(xmlName)));
+                    return generateLayout(xmlName, ox, viewBindingBuilder, viewBindingEnabled);
+                });
             }
         }
 
+        for (List<SrcCodeBean> layoutSources : generateConcurrently(layoutTasks)) {
+            srcCodeBeans.addAll(layoutSources);
+        }
+
         Ix ix = new Ix(N, projectFileManager.b(), builtInLibraryManager);
         ix.setYq(this);
 
@@ -865,6 +957,58 @@ public class yq {
         return srcCodeBeans;
     }
 
+    /**
+     * @return The layout's code, and its binding class's code if View Binding is enabled
+     */
+    private List<SrcCodeBean> generateLayout(String xmlName, Ox ox, ViewBindingBuilder viewBindingBuilder, boolean viewBindingEnabled) {
+        List<SrcCodeBean> sources = new ArrayList<>(2);
+        String layoutCode = CommandBlock.applyCommands(xmlName, ox.b());
+        sources.add(new SrcCodeBean(xmlName, layoutCode));
+
+        if (viewBindingEnabled) {
+            var privFile = new File(context.getCacheDir(), xmlName);
+            FileUtil.writeFile(privFile.getAbsolutePath(), layoutCode);
+            var code = viewBindingBuilder.generateBindingForLayout(privFile);
+            sources.add(new SrcCodeBean(
+                    ViewBindingBuilder.generateFileNameForLayout(xmlName.replace(".xml", "")) + ".java",
+                    CommandBlock.applyCommands(xmlName, code)
+            ));
+        }
+        return sources;
+    }
+
+    /**
+     * Runs source generation tasks on all available cores.
+     *
+     * @return The tasks' results, in the same order as <code>tasks</code>
+     */
+    private static <T> List<T> generateConcurrently(List<Callable<T>> tasks) {
+        if (tasks.isEmpty()) return new ArrayList<>();
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(tasks.size(), Runtime.getRuntime().availableProcessors()));
+        try {
+            List<T> results = new ArrayList<>(tasks.size());
+            for (Future<T> future : executor.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while generating source code", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException runtimeException) throw runtimeException;
+            if (cause instanceof Error error) throw error;
+            throw new IllegalStateException("Failed to generate source code", cause);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private record GeneratedActivity(SrcCodeBean source, ArrayList<HashMap<String, Object>> xmlCommands) {
+    }
+
     private boolean isViewBindingEnable() {
         return generateDataBindingClasses && projectSettings.getValue(ProjectSettings.SETTING_ENABLE_VIEWBINDING, ProjectSettings.SETTING_GENERIC_VALUE_FALSE).equals(ProjectSettings.SETTING_GENERIC_VALUE_TRUE);
     }
@@ -73,6 +73,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import a.a.a.DB;
 import a.a.a.GB;
@@ -98,6 +99,7 @@ import mod.agus.jcoderz.editor.manage.permission.ManagePermissionActivity;
 import mod.agus.jcoderz.editor.manage.resource.ManageResourceActivity;
 import mod.hey.studios.activity.managers.assets.ManageAssetsActivity;
 import mod.hey.studios.activity.managers.java.ManageJavaActivity;
+import mod.hey.studios.build.BuildSettings;
 import mod.hey.studios.compiler.kotlin.KotlinCompilerBridge;
 import mod.hey.studios.project.custom_blocks.CustomBlocksDialog;
 import mod.hey.studios.project.proguard.ManageProguardActivity;
@@ -108,8 +110,11 @@ import mod.hey.studios.util.Helper;
 import mod.hey.studios.util.SystemLogPrinter;
 import mod.hilal.saif.activities.android_manifest.AndroidManifestInjection;
 import mod.hilal.saif.activities.tools.ConfigActivity;
+import mod.jbk.build.BuildGraph;
 import mod.jbk.build.BuildProgressReceiver;
 import mod.jbk.build.BuiltInLibraries;
+import mod.jbk.build.compiler.resource.Aapt2Daemon;
+import mod.jbk.diagnostic.BuildHistory;
 import mod.jbk.diagnostic.CompileErrorSaver;
 import mod.jbk.diagnostic.MissingFileException;
 import mod.jbk.util.LogUtil;
@@ -617,6 +622,10 @@ public class DesignActivity extends BaseAppCompatActivity implements View.OnClic
     public void onDestroy() {
         super.onDestroy();
         unregisterReceiver(buildCancelReceiver);
+        if (isFinishing()) {
+            /* Builds get started from the editor, so don't keep the AAPT2 daemon alive after leaving it */
+            Aapt2Daemon.shutdown();
+        }
     }
 
     @Override
@@ -1055,6 +1064,10 @@ public class DesignActivity extends BaseAppCompatActivity implements View.OnClic
         private final LinearLayout progressContainer;
         private final TextView progressText;
         private final LinearProgressIndicator progressBar;
+        /**
+         * Highest step reported so far, as steps running in parallel report their progress out of order
+         */
+        private final AtomicInteger highestStep = new AtomicInteger();
         public volatile boolean canceled;
         private volatile boolean isBuildFinished;
         private boolean isShowingNotification = false;
@@ -1095,7 +1108,13 @@ public class DesignActivity extends BaseAppCompatActivity implements View.OnClic
                 var q = activity.q;
                 var sc_id = DesignActivity.sc_id;
                 onProgress("Deleting temporary files...", 1);
-                FileUtil.deleteFile(q.projectMyscPath);
+                /* Metadata isn't initialized yet, but this task always builds debug APKs */
+                if (ProjectBuilder.isIncrementalBuildEnabled(new BuildSettings(sc_id), true)) {
+                    /* Keep build outputs of previous builds, and generated sources that don't change */
+                    q.prepareIncrementalSourceGeneration();
+                } else {
+                    FileUtil.deleteFile(q.projectMyscPath);
+                }
 
                 q.c(activity.getApplicationContext());
                 q.a();
@@ -1131,78 +1150,100 @@ public class DesignActivity extends BaseAppCompatActivity implements View.OnClic
                 q.a(libraryManager, fileManager, dataManager);
                 builder.buildBuiltInLibraryInformation();
                 q.b(fileManager, dataManager, libraryManager, builder.getBuiltInLibraryManager());
-                q.f();
-                q.e();
-
-                builder.maybeExtractAapt2();
-                if (canceled) {
-                    return;
-                }
-
-                onProgress("Extracting built-in libraries...", 3);
-                BuiltInLibraries.extractCompileAssets(this);
-                if (canceled) {
-                    return;
-                }
-
-                onProgress("AAPT2 is running...", 8);
-                builder.compileResources();
-                if (canceled) {
-                    return;
-                }
-
-                onProgress("Generating view binding...", 11);
-                builder.generateViewBinding();
-                if (canceled) {
-                    return;
-                }
-
-                KotlinCompilerBridge.compileKotlinCodeIfPossible(this, builder);
-                if (canceled) {
-                    return;
-                }
-
-                onProgress("Java is compiling...", 13);
-                builder.compileJavaCode();
-                if (canceled) {
-                    return;
-                }
-
-                StringfogHandler stringfogHandler = new StringfogHandler(sc_id);
-                stringfogHandler.start(this, builder);
-                if (canceled) {
-                    return;
+                if (!builder.isIncrementalBuildEnabled()) {
+                    q.f();
                 }
+                q.e();
 
-                ProguardHandler proguardHandler = new ProguardHandler(sc_id);
-                proguardHandler.start(this, builder);
-                if (canceled) {
-                    return;
+                /* Steps run as soon as the steps they depend on finished, independent ones in parallel */
+                BuildGraph buildGraph = new BuildGraph(() -> canceled, builder.getBuildTrace());
+                buildGraph.add("aapt2", builder::maybeExtractAapt2);
+                buildGraph.add("builtInLibraries", () -> {
+                    onProgress("Extracting built-in libraries...", 3);
+                    BuiltInLibraries.extractCompileAssets(this);
+                });
+                buildGraph.add("viewBinding", () -> {
+                    onProgress("Generating view binding...", 11);
+                    builder.generateViewBinding();
+                });
+                buildGraph.add("resources", () -> {
+                    onProgress("AAPT2 is running...", 8);
+                    if (!builder.isStageUpToDate(ProjectBuilder.STAGE_RESOURCES)) {
+                        builder.compileResources();
+                        if (canceled) {
+                            return;
+                        }
+                        builder.markStageFinished(ProjectBuilder.STAGE_RESOURCES);
+                    }
+                }, "aapt2", "builtInLibraries");
+                /* Merging library DEX files while compiling takes a lot of heap */
+                boolean mergeLibraryDexesInParallel = builder.hasMemoryForParallelSteps();
+                if (mergeLibraryDexesInParallel) {
+                    buildGraph.add("libraryDexes", builder::prepareLibraryDexBundle, "builtInLibraries");
                 }
+                buildGraph.add("classes", () -> {
+                    if (!builder.isStageUpToDate(ProjectBuilder.STAGE_CLASSES)) {
+                        KotlinCompilerBridge.compileKotlinCodeIfPossible(this, builder);
+                        if (canceled) {
+                            return;
+                        }
 
-                onProgress(builder.getDxRunningText(), 17);
-                builder.createDexFilesFromClasses();
-                if (canceled) {
-                    return;
-                }
+                        onProgress("Java is compiling...", 13);
+                        builder.compileJavaCode();
+                        if (canceled) {
+                            return;
+                        }
 
-                onProgress("Merging DEX files...", 18);
-                builder.getDexFilesReady();
-                if (canceled) {
-                    return;
-                }
+                        StringfogHandler stringfogHandler = new StringfogHandler(sc_id);
+                        stringfogHandler.start(this, builder);
+                        if (canceled) {
+                            return;
+                        }
 
-                onProgress("Building APK...", 19);
-                builder.buildApk();
-                if (canceled) {
-                    return;
+                        ProguardHandler proguardHandler = new ProguardHandler(sc_id);
+                        proguardHandler.start(this, builder);
+                        if (canceled) {
+                            return;
+                        }
+                        builder.markStageFinished(ProjectBuilder.STAGE_CLASSES);
+                    }
+                }, "resources", "viewBinding");
+                buildGraph.add("dex", () -> {
+                    onProgress(builder.getDxRunningText(), 17);
+                    if (!builder.isStageUpToDate(ProjectBuilder.STAGE_DEX)) {
+                        builder.createDexFilesFromClasses();
+                        if (canceled) {
+                            return;
+                        }
+                        builder.markStageFinished(ProjectBuilder.STAGE_DEX);
+                    }
+                }, "classes");
+                if (!mergeLibraryDexesInParallel) {
+                    buildGraph.add("libraryDexes", builder::prepareLibraryDexBundle, "builtInLibraries", "dex");
                 }
-
-                onProgress("Signing APK...", 20);
-                builder.signDebugApk();
-                if (canceled) {
-                    return;
+                buildGraph.add("mergeDexes", () -> {
+                    onProgress("Merging DEX files...", 18);
+                    builder.getDexFilesReady();
+                }, "dex", "libraryDexes");
+                buildGraph.add("apk", () -> {
+                    onProgress("Building APK...", 19);
+                    if (!builder.isStageUpToDate(ProjectBuilder.STAGE_APK)) {
+                        builder.buildApkSignedWithTestkey(builder.yq.finalToInstallApkPath);
+                        if (canceled) {
+                            return;
+                        }
+                        builder.markStageFinished(ProjectBuilder.STAGE_APK);
+                    }
+                }, "mergeDexes");
+                try {
+                    if (!buildGraph.run()) {
+                        return;
+                    }
+                } finally {
+                    /* Also of failed builds, to see which step failed after how long */
+                    builder.writeBuildTrace();
                 }
+                new BuildHistory(sc_id).add(BuildHistory.Record.of(builder.getBuildTrace(), new File(q.finalToInstallApkPath)));
 
                 activity.installBuiltApk();
                 isBuildFinished = true;
@@ -1245,12 +1286,13 @@ public class DesignActivity extends BaseAppCompatActivity implements View.OnClic
         }
 
         @Override
-        public void onProgress(String progress, int step) {
+        public void onProgress(String progress, int reportedStep) {
             int totalSteps = 20;
 
             DesignActivity activity = getActivity();
             if (activity == null) return;
 
+            int step = reportedStep == -1 ? -1 : highestStep.accumulateAndGet(reportedStep, Math::max);
             activity.runOnUiThread(() -> {
                 progressBar.setIndeterminate(step == -1);
                 if (!canceled) {
@@ -52,7 +52,6 @@ import mod.jbk.build.BuildProgressReceiver;
 import mod.jbk.build.BuiltInLibraries;
 import mod.jbk.build.compiler.bundle.AppBundleCompiler;
 import mod.jbk.export.GetKeyStoreCredentialsDialog;
-import mod.jbk.util.TestkeySignBridge;
 import pro.sketchware.R;
 import pro.sketchware.utility.FilePathUtil;
 import pro.sketchware.utility.FileUtil;
@@ -636,37 +635,33 @@ public class ExportProjectActivity extends BaseAppCompatActivity {
                     }
                 } else {
                     publishProgress("Building APK...");
-                    builder.buildApk();
-                    if (canceled) {
-                        cancel(true);
-                        return;
-                    }
-
-                    publishProgress("Aligning APK...");
-                    builder.runZipalign(builder.yq.unsignedUnalignedApkPath, builder.yq.unsignedAlignedApkPath);
-                    if (canceled) {
-                        cancel(true);
-                        return;
-                    }
-
-                    publishProgress("Signing APK...");
                     String outputLocation = getCorrectResultFilename(builder.yq.releaseApkPath);
                     if (signWithTestkey) {
-                        TestkeySignBridge.signWithTestkey(builder.yq.unsignedAlignedApkPath, outputLocation);
-                    } else if (isResultJarSigningEnabled()) {
-                        Security.addProvider(new BouncyCastleProvider());
-                        CustomKeySigner.signZip(
-                                new ZipSigner(),
-                                wq.j(),
-                                signingKeystorePassword,
-                                signingAliasName,
-                                signingKeystorePassword,
-                                signingAlgorithm,
-                                builder.yq.unsignedAlignedApkPath,
-                                outputLocation
-                        );
+                        /* Aligned and signed while it's being built */
+                        builder.buildApkSignedWithTestkey(outputLocation);
                     } else {
-                        FileUtil.copyFile(builder.yq.unsignedAlignedApkPath, outputLocation);
+                        builder.buildApk();
+                        if (canceled) {
+                            cancel(true);
+                            return;
+                        }
+
+                        publishProgress("Signing APK...");
+                        if (isResultJarSigningEnabled()) {
+                            Security.addProvider(new BouncyCastleProvider());
+                            CustomKeySigner.signZip(
+                                    new ZipSigner(),
+                                    wq.j(),
+                                    signingKeystorePassword,
+                                    signingAliasName,
+                                    signingKeystorePassword,
+                                    signingAlgorithm,
+                                    builder.yq.unsignedAlignedApkPath,
+                                    outputLocation
+                            );
+                        } else {
+                            FileUtil.copyFile(builder.yq.unsignedAlignedApkPath, outputLocation);
+                        }
                     }
                 }
             } catch (Throwable throwable) {
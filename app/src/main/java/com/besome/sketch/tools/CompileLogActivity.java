@@ -2,27 +2,41 @@ package com.besome.sketch.tools;
 
 import android.annotation.SuppressLint;
 import android.content.Context;
+import android.content.Intent;
 import android.content.SharedPreferences;
 import android.graphics.Typeface;
 import android.os.Bundle;
+import android.text.format.Formatter;
 import android.view.Gravity;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.LinearLayout;
 import android.widget.NumberPicker;
 import android.widget.PopupMenu;
+import android.widget.ScrollView;
+import android.widget.TextView;
 
+import androidx.core.content.FileProvider;
 import androidx.core.view.ViewCompat;
 import androidx.core.view.WindowInsetsCompat;
 
 import com.besome.sketch.lib.base.BaseAppCompatActivity;
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 
+import java.io.File;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
 import mod.hey.studios.util.CompileLogHelper;
 import mod.hey.studios.util.Helper;
+import mod.jbk.build.BuildTrace;
+import mod.jbk.diagnostic.BuildHistory;
+import mod.jbk.diagnostic.BuildHistoryChartView;
 import mod.jbk.diagnostic.CompileErrorSaver;
 import mod.jbk.util.AddMarginOnApplyWindowInsetsListener;
 import pro.sketchware.databinding.CompileLogBinding;
+import pro.sketchware.utility.FilePathUtil;
 import pro.sketchware.utility.SketchwareUtil;
 
 public class CompileLogActivity extends BaseAppCompatActivity {
@@ -30,6 +44,7 @@ public class CompileLogActivity extends BaseAppCompatActivity {
     private static final String PREFERENCE_WRAPPED_TEXT = "wrapped_text";
     private static final String PREFERENCE_USE_MONOSPACED_FONT = "use_monospaced_font";
     private static final String PREFERENCE_FONT_SIZE = "font_size";
+    private static final int CHARTED_BUILDS = 20;
     private CompileErrorSaver compileErrorSaver;
     private SharedPreferences logViewerPreferences;
 
@@ -64,6 +79,19 @@ public class CompileLogActivity extends BaseAppCompatActivity {
 
         compileErrorSaver = new CompileErrorSaver(sc_id);
 
+        File buildTrace = new File(FilePathUtil.getLastBuildTracePath(sc_id));
+        if (buildTrace.isFile()) {
+            binding.topAppBar.getMenu().add("Last build trace").setOnMenuItemClickListener(item -> {
+                showBuildTraceDialog(buildTrace);
+                return true;
+            });
+        }
+        BuildHistory buildHistory = new BuildHistory(sc_id);
+        binding.topAppBar.getMenu().add("Build history").setOnMenuItemClickListener(item -> {
+            showBuildHistoryDialog(buildHistory);
+            return true;
+        });
+
         if (compileErrorSaver.logFileExists()) {
             binding.clearButton.setOnClickListener(v -> {
                 if (compileErrorSaver.logFileExists()) {
@@ -129,6 +157,105 @@ public class CompileLogActivity extends BaseAppCompatActivity {
         binding.tvCompileLog.setTextIsSelectable(true);
     }
 
+    /**
+     * Shows the spans of the last build in the order they began, and offers sharing the trace, e.g.
+     * to open it with Perfetto.
+     */
+    private void showBuildTraceDialog(File buildTrace) {
+        List<BuildTrace.Event> spans = BuildTrace.read(buildTrace);
+        spans.sort(Comparator.comparingLong(span -> span.ts));
+
+        StringBuilder summary = new StringBuilder();
+        for (BuildTrace.Event span : spans) {
+            summary.append(span.name).append(": ").append(span.dur / 1000).append(" ms");
+            if (span.args != null) {
+                for (Map.Entry<String, Object> arg : span.args.entrySet()) {
+                    summary.append(", ").append(arg.getKey()).append(" ").append(formatTraceArg(arg.getKey(), arg.getValue()));
+                }
+            }
+            summary.append("\n");
+        }
+
+        new MaterialAlertDialogBuilder(this)
+                .setTitle("Last build trace")
+                .setMessage(spans.isEmpty() ? "The last build didn't record any spans." : summary.toString().trim())
+                .setPositiveButton("Share", (dialog, which) -> {
+                    Intent intent = new Intent(Intent.ACTION_SEND);
+                    intent.setType("application/json");
+                    intent.putExtra(Intent.EXTRA_STREAM, FileProvider.getUriForFile(getApplicationContext(),
+                            getApplicationContext().getPackageName() + ".provider", buildTrace));
+                    intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+                    startActivity(Intent.createChooser(intent, "Share build trace"));
+                })
+                .setNegativeButton("Close", null)
+                .show();
+    }
+
+    /**
+     * Charts the durations of the last {@link #CHARTED_BUILDS} builds and lists steps of the latest
+     * build that got slower than in the builds before.
+     */
+    private void showBuildHistoryDialog(BuildHistory buildHistory) {
+        List<BuildHistory.Record> records = buildHistory.getRecords();
+        if (records.isEmpty()) {
+            SketchwareUtil.toast("No builds have been recorded yet.");
+            return;
+        }
+        records = records.subList(Math.max(0, records.size() - CHARTED_BUILDS), records.size());
+
+        BuildHistory.Record latest = records.get(records.size() - 1);
+        StringBuilder summary = new StringBuilder();
+        summary.append("Latest build: ").append(latest.totalMillis).append(" ms");
+        summary.append("\nAPK size: ").append(Formatter.formatShortFileSize(this, latest.apkSize));
+        summary.append("\nDEX files: ").append(latest.dexCount);
+        int cacheHitRate = latest.getCacheHitRate();
+        if (cacheHitRate != -1) {
+            summary.append("\nCache hits: ").append(cacheHitRate).append("% of ")
+                    .append(latest.cacheHits + latest.cacheMisses).append(" checks");
+        }
+        List<String> regressions = BuildHistory.findRegressions(records);
+        summary.append(regressions.isEmpty() ? "\n\nNo step got noticeably slower." : "\n\nRegressions:");
+        for (String regression : regressions) {
+            summary.append("\n• ").append(regression);
+        }
+
+        int padding = (int) (16 * getResources().getDisplayMetrics().density);
+        LinearLayout layout = new LinearLayout(this);
+        layout.setOrientation(LinearLayout.VERTICAL);
+        layout.setPadding(padding, padding, padding, 0);
+        BuildHistoryChartView chart = new BuildHistoryChartView(this);
+        chart.setRecords(records);
+        layout.addView(chart);
+        TextView summaryView = new TextView(this);
+        summaryView.setText(summary);
+        summaryView.setTextIsSelectable(true);
+        layout.addView(summaryView);
+        ScrollView scrollView = new ScrollView(this);
+        scrollView.addView(layout);
+
+        new MaterialAlertDialogBuilder(this)
+                .setTitle("Last " + records.size() + " builds")
+                .setView(scrollView)
+                .setPositiveButton("Close", null)
+                .setNeutralButton("Clear", (dialog, which) -> {
+                    buildHistory.delete();
+                    SketchwareUtil.toast("Build history has been cleared.");
+                })
+                .show();
+    }
+
+    private String formatTraceArg(String key, Object value) {
+        if (!(value instanceof Number number)) return String.valueOf(value);
+
+        if (key.equals(BuildTrace.ARG_BYTES_IN) || key.equals(BuildTrace.ARG_BYTES_OUT)) {
+            return Formatter.formatShortFileSize(this, number.longValue());
+        }
+        if (key.equals(BuildTrace.ARG_HEAP_DELTA_KB)) {
+            return number.longValue() + " KB";
+        }
+        return String.valueOf(number.longValue());
+    }
+
     private void applyLogViewerPreferences() {
         toggleWrapText(getWrappedTextPreference());
         toggleMonospacedText(getMonospacedFontPreference());
@@ -21,7 +21,7 @@ public class ExtraBlockFile {
 
     public static ArrayList<HashMap<String, Object>> buildInBlocks = new ArrayList<>();
 
-    public static ArrayList<HashMap<String, Object>> getExtraBlockData() {
+    public static synchronized ArrayList<HashMap<String, Object>> getExtraBlockData() {
         ArrayList<HashMap<String, Object>> extraBlocks = new Gson().fromJson(getExtraBlockFile(), Helper.TYPE_MAP_LIST);
 
         buildInBlocks.clear();
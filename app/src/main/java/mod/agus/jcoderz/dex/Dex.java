@@ -32,6 +32,9 @@ import java.io.OutputStream;
 import java.io.UTFDataFormatException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.AbstractList;
@@ -76,9 +79,15 @@ public final class Dex {
     }
 
     private Dex(ByteBuffer data) throws IOException {
+        this(data, true);
+    }
+
+    private Dex(ByteBuffer data, boolean readTableOfContents) throws IOException {
         this.data = data;
         this.data.order(ByteOrder.LITTLE_ENDIAN);
-        this.tableOfContents.readFrom(this);
+        if (readTableOfContents) {
+            this.tableOfContents.readFrom(this);
+        }
     }
 
     /**
@@ -124,6 +133,30 @@ public final class Dex {
         }
     }
 
+    /**
+     * Creates a new dex backed by a read-only memory mapping of the dex file {@code file}, so that
+     * its content doesn't have to be copied onto the heap. {@code file} must not be modified while
+     * the returned dex is in use.
+     */
+    public static Dex map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return new Dex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Creates a new empty dex of the specified size, backed by a writable memory mapping of
+     * {@code file}. An existing {@code file} gets replaced, not overwritten, so that dexes
+     * mapping it stay intact.
+     */
+    public static Dex create(File file, int byteCount) throws IOException {
+        Files.deleteIfExists(file.toPath());
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return new Dex(channel.map(FileChannel.MapMode.READ_WRITE, 0, byteCount), false);
+        }
+    }
+
     /**
      * It is the caller's responsibility to close {@code in}.
      */
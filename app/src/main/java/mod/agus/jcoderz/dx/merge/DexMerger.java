@@ -50,6 +50,9 @@ public final class DexMerger {
 
     private final Dex dexOut;
 
+    /** file the merged dex gets written to, or null if it's kept in memory */
+    private final File outputFile;
+
     private final Dex.Section headerOut;
 
     /** All IDs and definitions sections */
@@ -90,17 +93,28 @@ public final class DexMerger {
 
     public DexMerger(Dex[] dexes, CollisionPolicy collisionPolicy, mod.agus.jcoderz.dx.command.dexer.DxContext context)
             throws IOException {
-        this(dexes, collisionPolicy, context, new WriterSizes(dexes));
+        this(dexes, collisionPolicy, context, new WriterSizes(dexes), null);
+    }
+
+    /**
+     * Creates a merger that writes the merged dex straight into a memory mapping of
+     * {@code outputFile} instead of a buffer on the heap. After {@link #merge()},
+     * {@code outputFile} contains the merged dex.
+     */
+    public DexMerger(Dex[] dexes, CollisionPolicy collisionPolicy, mod.agus.jcoderz.dx.command.dexer.DxContext context,
+            File outputFile) throws IOException {
+        this(dexes, collisionPolicy, context, new WriterSizes(dexes), outputFile);
     }
 
     private DexMerger(Dex[] dexes, CollisionPolicy collisionPolicy, mod.agus.jcoderz.dx.command.dexer.DxContext context,
-            WriterSizes writerSizes) throws IOException {
+            WriterSizes writerSizes, File outputFile) throws IOException {
         this.dexes = dexes;
         this.collisionPolicy = collisionPolicy;
         this.context = context;
         this.writerSizes = writerSizes;
+        this.outputFile = outputFile;
 
-        dexOut = new Dex(writerSizes.size());
+        dexOut = outputFile == null ? new Dex(writerSizes.size()) : Dex.create(outputFile, writerSizes.size());
 
         indexMaps = new mod.agus.jcoderz.dx.merge.IndexMap[dexes.length];
         for (int i = 0; i < dexes.length; i++) {
@@ -189,6 +203,14 @@ public final class DexMerger {
 
     public Dex merge() throws IOException {
         if (dexes.length == 1) {
+            if (outputFile != null) {
+                // outputFile is mapped by dexOut, so replace it instead of overwriting it
+                File copy = new File(outputFile.getPath() + ".tmp");
+                dexes[0].writeTo(copy);
+                if (!copy.renameTo(outputFile)) {
+                    throw new IOException("Couldn't move dex to " + outputFile);
+                }
+            }
             return dexes[0];
         } else if (dexes.length == 0) {
             return null;
@@ -205,9 +227,13 @@ public final class DexMerger {
         WriterSizes compactedSizes = new WriterSizes(this);
         int wastedByteCount = writerSizes.size() - compactedSizes.size();
         if (wastedByteCount >  + compactWasteThreshold) {
+            File compactedFile = outputFile == null ? null : new File(outputFile.getPath() + ".compacted");
             DexMerger compacter = new DexMerger(
-                    new Dex[] {dexOut, new Dex(0)}, CollisionPolicy.FAIL, context, compactedSizes);
+                    new Dex[] {dexOut, new Dex(0)}, CollisionPolicy.FAIL, context, compactedSizes, compactedFile);
             result = compacter.mergeDexes();
+            if (compactedFile != null && !compactedFile.renameTo(outputFile)) {
+                throw new IOException("Couldn't move compacted dex to " + outputFile);
+            }
             context.out.printf("Result compacted from %.1fKiB to %.1fKiB to save %.1fKiB%n",
                     dexOut.getLength() / 1024f,
                     result.getLength() / 1024f,
@@ -5,128 +5,179 @@ import android.util.Log;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import com.android.apksigner.ApkSignerTool;
+import com.android.apksig.ApkSignerEngine;
+import com.android.apksig.DefaultApkSignerEngine;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.PrintStream;
-import java.util.Arrays;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.UnrecoverableKeyException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import kellinwood.security.zipsigner.optional.KeyStoreFileManager;
 import mod.jbk.build.BuiltInLibraries;
+import mod.jbk.build.incremental.ContentHasher;
 
+/**
+ * Signs APKs with apksig's API in-process. testkey is kept in memory after it's been loaded once,
+ * so that debug builds don't have to parse its files again until they change. Keys of users' key
+ * stores are loaded for each signing, so that they don't stay in memory.
+ */
 public class ApkSigner {
 
     private static final File EXTRACTED_TESTKEY_FILES_DIRECTORY = new File(BuiltInLibraries.EXTRACTED_COMPILE_ASSETS_PATH, "testkey");
+    private static final String SIGNER_NAME = "CERT";
+
+    private static SigningKey testKey;
+    private static String testKeyHash;
 
     /**
      * Sign an APK with testkey.
      *
      * @param inputPath  The APK file to sign
      * @param outputPath File to output the signed APK to
-     * @param callback   Callback for System.out during signing. May be null
+     * @param callback   Callback for log messages during signing. May be null
      */
     public void signWithTestKey(@NonNull String inputPath, @NonNull String outputPath, @Nullable LogCallback callback) {
         try (LogWriter logger = new LogWriter(callback)) {
             long savedTimeMillis = System.currentTimeMillis();
-            PrintStream oldOut = System.out;
-
-            List<String> args = Arrays.asList(
-                    "sign",
-                    "--in",
-                    inputPath,
-                    "--out",
-                    outputPath,
-                    "--key",
-                    new File(EXTRACTED_TESTKEY_FILES_DIRECTORY, "testkey.pk8").getAbsolutePath(),
-                    "--cert",
-                    new File(EXTRACTED_TESTKEY_FILES_DIRECTORY, "testkey.x509.pem").getAbsolutePath()
-            );
-
-            logger.write("Signing an APK file with these arguments: " + args);
-
-            /* If the signing has a callback, we need to change System.out to our logger */
-            if (callback != null) {
-                try (PrintStream stream = new PrintStream(logger)) {
-                    System.setOut(stream);
-                }
-            }
+            logger.write("Signing " + inputPath + " with testkey to " + outputPath + "\n");
 
             try {
-                ApkSignerTool.main(args.toArray(new String[0]));
+                sign(getTestKey(), inputPath, outputPath);
             } catch (Exception e) {
                 LogCallback.errorCount.incrementAndGet();
                 logger.write("An error occurred while trying to sign the APK file " + inputPath +
                         " and outputting it to " + outputPath + ": " + e.getMessage() + "\n" +
-                        "Stack trace: " + Log.getStackTraceString(e));
+                        "Stack trace: " + Log.getStackTraceString(e) + "\n");
             }
 
-            logger.write("Signing an APK file took " + (System.currentTimeMillis() - savedTimeMillis) + " ms");
-
-            if (callback != null) {
-                System.setOut(oldOut);
-            }
+            logger.write("Signing an APK file took " + (System.currentTimeMillis() - savedTimeMillis) + " ms\n");
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Creates an engine that signs an APK with testkey while it's being written by
+     * {@link mod.jbk.build.ApkWriter}, using the same signature schemes apksigner uses by default.
+     *
+     * @param minSdkVersion The APK's minSdkVersion
+     */
+    public static ApkSignerEngine createTestKeySignerEngine(int minSdkVersion) throws GeneralSecurityException, IOException {
+        SigningKey key = getTestKey();
+        DefaultApkSignerEngine.SignerConfig signerConfig = new DefaultApkSignerEngine.SignerConfig.Builder(
+                SIGNER_NAME, key.privateKey(), key.certificates()).build();
+        return new DefaultApkSignerEngine.Builder(Collections.singletonList(signerConfig), minSdkVersion)
+                .setV1SigningEnabled(true)
+                .setV2SigningEnabled(true)
+                .setV3SigningEnabled(true)
+                .build();
+    }
+
     public void signWithKeyStore(@NonNull String inputFilePath, @NonNull String outputFilePath,
                                  @NonNull String keyStorePath, @NonNull String keyStorePassword,
                                  @NonNull String keyStoreKeyAlias, @NonNull String keyPassword, @Nullable LogCallback callback) {
         try (LogWriter logger = new LogWriter(callback)) {
             long savedTimeMillis = System.currentTimeMillis();
-            PrintStream oldOut = System.out;
-
-            List<String> args = Arrays.asList(
-                    "sign",
-                    "--in",
-                    inputFilePath,
-                    "--out",
-                    outputFilePath,
-                    "--ks",
-                    keyStorePath,
-                    "--ks-pass",
-                    "pass:" + keyStorePassword,
-                    "--ks-key-alias",
-                    keyStoreKeyAlias,
-                    "--key-pass",
-                    "pass:" + keyPassword
-            );
-
-            logger.write("Signing an APK with a JKS keystore and these arguments: ");
-
-            if (callback != null) {
-                try (PrintStream stream = new PrintStream(logger)) {
-                    System.setOut(stream);
-                }
-            }
+            logger.write("Signing an APK with key " + keyStoreKeyAlias + " of key store " + keyStorePath + "\n");
 
             try {
-                ApkSignerTool.main(args.toArray(new String[0]));
+                sign(loadKeyStoreKey(keyStorePath, keyStorePassword, keyStoreKeyAlias, keyPassword), inputFilePath, outputFilePath);
             } catch (Exception e) {
                 LogCallback.errorCount.incrementAndGet();
-                logger.write("Failed to sign APK with JKS keystore: " + Log.getStackTraceString(e));
+                logger.write("Failed to sign APK with JKS keystore: " + Log.getStackTraceString(e) + "\n");
             }
 
-            logger.write("Signing an APK took " + (System.currentTimeMillis() - savedTimeMillis) + " ms");
-
-            if (callback != null) {
-                System.setOut(oldOut);
-            }
+            logger.write("Signing an APK took " + (System.currentTimeMillis() - savedTimeMillis) + " ms\n");
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Signs with the v1, v2 and v3 schemes, like apksigner does by default. The minimum SDK version
+     * is read from the APK's AndroidManifest.xml.
+     */
+    private static void sign(SigningKey key, String inputPath, String outputPath) throws Exception {
+        com.android.apksig.ApkSigner.SignerConfig signerConfig = new com.android.apksig.ApkSigner.SignerConfig.Builder(
+                SIGNER_NAME, key.privateKey(), key.certificates()).build();
+        new com.android.apksig.ApkSigner.Builder(Collections.singletonList(signerConfig))
+                .setInputApk(new File(inputPath))
+                .setOutputApk(new File(outputPath))
+                .setV1SigningEnabled(true)
+                .setV2SigningEnabled(true)
+                .setV3SigningEnabled(true)
+                .build()
+                .sign();
+    }
+
+    private static synchronized SigningKey getTestKey() throws GeneralSecurityException, IOException {
+        File keyFile = new File(EXTRACTED_TESTKEY_FILES_DIRECTORY, "testkey.pk8");
+        File certificateFile = new File(EXTRACTED_TESTKEY_FILES_DIRECTORY, "testkey.x509.pem");
+        String hash = new ContentHasher().putFileMetadata(keyFile).putFileMetadata(certificateFile).hash();
+        if (testKey != null && hash.equals(testKeyHash)) return testKey;
+
+        byte[] encodedKey = Files.readAllBytes(keyFile.toPath());
+        PrivateKey privateKey = KeyFactory.getInstance("RSA").generatePrivate(new PKCS8EncodedKeySpec(encodedKey));
+
+        X509Certificate certificate;
+        try (InputStream certificateStream = new FileInputStream(certificateFile)) {
+            certificate = (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(certificateStream);
+        }
+
+        testKey = new SigningKey(privateKey, Collections.singletonList(certificate));
+        testKeyHash = hash;
+        return testKey;
+    }
+
+    /**
+     * Loads a key of a JKS or BKS key store.
+     */
+    private static SigningKey loadKeyStoreKey(String keyStorePath, String keyStorePassword,
+                                              String keyAlias, String keyPassword) throws Exception {
+        KeyStore keyStore = KeyStoreFileManager.loadKeyStore(keyStorePath, keyStorePassword.toCharArray());
+        if (!(keyStore.getKey(keyAlias, keyPassword.toCharArray()) instanceof PrivateKey privateKey)) {
+            throw new UnrecoverableKeyException("Key store " + keyStorePath + " has no private key with alias " + keyAlias);
+        }
+
+        List<X509Certificate> certificates = new ArrayList<>();
+        Certificate[] certificateChain = keyStore.getCertificateChain(keyAlias);
+        if (certificateChain != null) {
+            for (Certificate certificate : certificateChain) {
+                certificates.add((X509Certificate) certificate);
+            }
+        }
+        if (certificates.isEmpty()) {
+            throw new UnrecoverableKeyException("Key store " + keyStorePath + " has no certificates for alias " + keyAlias);
+        }
+
+        return new SigningKey(privateKey, Collections.unmodifiableList(certificates));
+    }
+
     public interface LogCallback {
         AtomicInteger errorCount = new AtomicInteger(0);
 
         void onNewLineLogged(String line);
     }
 
+    private record SigningKey(PrivateKey privateKey, List<X509Certificate> certificates) {
+    }
+
     private static class LogWriter extends OutputStream {
 
         private final LogCallback mCallback;
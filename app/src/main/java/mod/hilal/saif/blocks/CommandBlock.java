@@ -25,6 +25,9 @@ import pro.sketchware.utility.FileUtil;
  */
 public class CommandBlock {
 
+    private static final Object TEMP_FILE_LOCK = new Object();
+    private static final ThreadLocal<ArrayList<HashMap<String, Object>>> deferredXmlCommands = new ThreadLocal<>();
+
     public static String applyCommands(String fileName, String c) {
         String str = c;
         String path = FileUtil.getExternalStorageDir().concat("/.sketchware/temp/commands");
@@ -248,8 +251,47 @@ public class CommandBlock {
         }
     }
 
+    /**
+     * Makes {@link #CBForXml(String)} on the current thread collect XML commands instead of
+     * writing them to the temporary commands file, until {@link #stopDeferringXmlCommands()} is called.
+     * Lets code be generated on multiple threads while keeping the commands file's order stable.
+     */
+    public static void deferXmlCommands() {
+        deferredXmlCommands.set(new ArrayList<>());
+    }
+
+    /**
+     * @return The XML commands collected on the current thread since {@link #deferXmlCommands()}
+     */
+    public static ArrayList<HashMap<String, Object>> stopDeferringXmlCommands() {
+        ArrayList<HashMap<String, Object>> commands = deferredXmlCommands.get();
+        deferredXmlCommands.remove();
+        return commands != null ? commands : new ArrayList<>();
+    }
+
+    /**
+     * Appends XML commands collected through {@link #deferXmlCommands()} to the temporary commands file.
+     */
+    public static void writeXmlCommands(ArrayList<HashMap<String, Object>> commands) {
+        if (!commands.isEmpty()) {
+            WTF(commands);
+        }
+    }
+
     // Write Temporary File
     private static void WTF(ArrayList<HashMap<String, Object>> list) {
+        ArrayList<HashMap<String, Object>> deferred = deferredXmlCommands.get();
+        if (deferred != null) {
+            deferred.addAll(list);
+            return;
+        }
+
+        synchronized (TEMP_FILE_LOCK) {
+            writeTemporaryFile(list);
+        }
+    }
+
+    private static void writeTemporaryFile(ArrayList<HashMap<String, Object>> list) {
         String path = FileUtil.getExternalStorageDir().concat("/.sketchware/temp/commands");
         ArrayList<HashMap<String, Object>> data = new ArrayList<>();
         try {
@@ -294,11 +336,13 @@ public class CommandBlock {
 
     private static void writeLog(String s) {
         String path = FileUtil.getExternalStorageDir().concat("/.sketchware/temp/log.txt");
-        String text = "";
-        if (FileUtil.isExistFile(path)) {
-            text = FileUtil.readFile(path);
+        synchronized (TEMP_FILE_LOCK) {
+            String text = "";
+            if (FileUtil.isExistFile(path)) {
+                text = FileUtil.readFile(path);
+            }
+            FileUtil.writeFile(path, text.concat("\n=>").concat(s));
         }
-        FileUtil.writeFile(path, text.concat("\n=>").concat(s));
     }
 
     private static void getCBs(ArrayList<HashMap<String, Object>> arr, String c, String sid, String eid) {
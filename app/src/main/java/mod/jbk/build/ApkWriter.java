@@ -0,0 +1,464 @@
+package mod.jbk.build;
+
+import com.android.apksig.ApkSignerEngine;
+import com.android.apksig.util.DataSources;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Writes an APK file in one pass. Entries get aligned as they're written, and if a signer engine is
+ * given, it's fed each entry's data while it's being written, so that the signature can be added right
+ * after the last entry. Before, the APK was sealed by ApkBuilder, rewritten by zipalign and then
+ * rewritten again by apksigner.
+ * <p>
+ * Entries copied from ZIP files keep being stored if they're stored there, everything else gets deflated.
+ * Java resources of JARs are copied as they are, so deflated ones don't have to be compressed again.
+ */
+public class ApkWriter implements Closeable {
+
+    private static final int LOCAL_FILE_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_DIRECTORY_ENTRY_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int LOCAL_FILE_HEADER_SIZE = 30;
+    private static final int CENTRAL_DIRECTORY_ENTRY_SIZE = 46;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+    private static final int FLAG_UTF8_NAME = 0x0800;
+    /**
+     * 1981-01-01 00:00, like apksigner uses, so that unchanged inputs result in the same APK
+     */
+    private static final int DOS_DATE = ((1981 - 1980) << 9) | (1 << 5) | 1;
+    private static final int DOS_TIME = 0;
+    private static final int ALIGNMENT = 4;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final PositionOutputStream out;
+    private final ApkSignerEngine signer;
+    private final List<CentralDirectoryEntry> entries = new ArrayList<>();
+    /**
+     * Entry names to the files they've been added from, to report duplicates
+     */
+    private final Map<String, File> entryOrigins = new HashMap<>();
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final CRC32 crc = new CRC32();
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private final byte[] deflateBuffer = new byte[BUFFER_SIZE];
+
+    /**
+     * @param signer Engine to sign the APK with, or <code>null</code> to write an unsigned APK.
+     *               It gets closed together with this writer.
+     */
+    public ApkWriter(File output, ApkSignerEngine signer) throws IOException {
+        this.signer = signer;
+        file = new RandomAccessFile(output, "rw");
+        file.setLength(0);
+        channel = file.getChannel();
+        out = new PositionOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE));
+    }
+
+    /**
+     * Adds a file as deflated entry.
+     */
+    public void addFile(File source, String name) throws IOException {
+        try (InputStream data = new FileInputStream(source)) {
+            writeEntry(name, source, data, true);
+        }
+    }
+
+    /**
+     * Adds all entries of a ZIP file, like the APK of compiled resources.
+     */
+    public void addZip(File zip) throws IOException {
+        try (ZipFile zipFile = new ZipFile(zip)) {
+            Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+            while (zipEntries.hasMoreElements()) {
+                ZipEntry entry = zipEntries.nextElement();
+                if (entry.isDirectory()) continue;
+
+                try (InputStream data = zipFile.getInputStream(entry)) {
+                    writeEntry(entry.getName(), zip, data, entry.getMethod() != ZipEntry.STORED);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds Java resources of a JAR file, leaving out classes, META-INF and files like source code.
+     * The list of resources comes from {@link ClasspathIndex}, so it's only created again if the JAR changed.
+     */
+    public void addResourcesFromJar(File jar) throws IOException {
+        ClasspathIndex.IndexedJar indexedJar = ClasspathIndex.getInstance().getJar(jar);
+        for (ClasspathIndex.Entry resource : indexedJar.getJavaResources()) {
+            copyEntry(indexedJar, resource);
+        }
+    }
+
+    /**
+     * Adds native libraries of a directory with ABI directories, like <code>armeabi-v7a</code>.
+     */
+    public void addNativeLibraries(File directory) throws IOException {
+        if (!directory.isDirectory()) {
+            throw new IOException(directory.getAbsolutePath() + (directory.exists() ? " isn't a directory" : " doesn't exist"));
+        }
+
+        File[] abiDirectories = directory.listFiles();
+        if (abiDirectories == null) return;
+        for (File abiDirectory : abiDirectories) {
+            File[] libraries = abiDirectory.listFiles();
+            if (libraries == null) continue;
+
+            for (File library : libraries) {
+                if (library.isFile() && library.getName().toLowerCase(Locale.ROOT).endsWith(".so")) {
+                    addFile(library, "lib/" + abiDirectory.getName() + "/" + library.getName());
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the signature files, if signing, and writes the central directory. Must be called after all
+     * entries have been added.
+     */
+    public void finish() throws IOException {
+        try {
+            if (signer != null) {
+                ApkSignerEngine.OutputJarSignatureRequest signatureRequest = signer.outputJarEntries();
+                if (signatureRequest != null) {
+                    for (ApkSignerEngine.OutputJarSignatureRequest.JarEntry entry : signatureRequest.getAdditionalJarEntries()) {
+                        writeEntry(entry.getName(), null, new ByteArrayInputStream(entry.getData()), true);
+                    }
+                    signatureRequest.done();
+                }
+            }
+
+            out.flush();
+            long centralDirectoryOffset = out.position;
+            ByteBuffer centralDirectory = createCentralDirectory();
+            ByteBuffer endOfCentralDirectory = ByteBuffer.allocate(END_OF_CENTRAL_DIRECTORY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            endOfCentralDirectory.putInt(END_OF_CENTRAL_DIRECTORY_SIGNATURE)
+                    .putShort((short) 0)
+                    .putShort((short) 0)
+                    .putShort((short) entries.size())
+                    .putShort((short) entries.size())
+                    .putInt(centralDirectory.capacity())
+                    .putInt(checkZip32(centralDirectoryOffset))
+                    .putShort((short) 0)
+                    .flip();
+
+            if (signer != null) {
+                /* The APK Signing Block's digests cover the entries just written, which are read back from the file */
+                ApkSignerEngine.OutputApkSigningBlockRequest2 signingBlockRequest = signer.outputZipSections2(
+                        DataSources.asDataSource(channel, 0, centralDirectoryOffset),
+                        DataSources.asDataSource(centralDirectory.duplicate()),
+                        DataSources.asDataSource(endOfCentralDirectory.duplicate()));
+                if (signingBlockRequest != null) {
+                    byte[] signingBlock = signingBlockRequest.getApkSigningBlock();
+                    out.write(new byte[signingBlockRequest.getPaddingSizeBeforeApkSigningBlock()]);
+                    out.write(signingBlock);
+                    endOfCentralDirectory.putInt(16, checkZip32(out.position));
+                    signingBlockRequest.done();
+                }
+            }
+
+            out.write(centralDirectory.array());
+            out.write(endOfCentralDirectory.array());
+            out.flush();
+
+            if (signer != null) {
+                signer.outputDone();
+            }
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Couldn't sign APK: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        deflater.end();
+        if (signer != null) {
+            signer.close();
+        }
+        file.close();
+    }
+
+    /**
+     * Copies a JAR entry's data without decompressing it. It only gets inflated if the signer needs
+     * its content for the v1 signature.
+     */
+    private void copyEntry(ClasspathIndex.IndexedJar jar, ClasspathIndex.Entry entry) throws IOException {
+        String name = entry.name();
+        if (entry.method() != METHOD_STORED && entry.method() != METHOD_DEFLATED) {
+            throw new IOException("Unsupported compression method " + entry.method() + " of " + name);
+        }
+        checkForDuplicate(name, jar.getJar());
+
+        ApkSignerEngine.InspectJarEntryRequest inspectRequest = signer != null ? signer.outputJarEntry(name) : null;
+        if (inspectRequest != null) {
+            byte[] content = jar.readEntry(entry);
+            inspectRequest.getDataSink().consume(content, 0, content.length);
+            inspectRequest.done();
+        }
+
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        long compressedSize = Integer.toUnsignedLong(entry.compressedSize());
+        long uncompressedSize = Integer.toUnsignedLong(entry.uncompressedSize());
+        long headerOffset = writeLocalHeader(nameBytes, entry.method(), entry.crc(), compressedSize, uncompressedSize);
+
+        ByteBuffer data = jar.getRawData(entry);
+        while (data.hasRemaining()) {
+            int length = Math.min(buffer.length, data.remaining());
+            data.get(buffer, 0, length);
+            out.write(buffer, 0, length);
+        }
+
+        entries.add(new CentralDirectoryEntry(nameBytes, entry.method(), entry.crc(),
+                compressedSize, uncompressedSize, checkZip32(headerOffset)));
+    }
+
+    /**
+     * Writes a local file header with placeholders for CRC and sizes, the entry's data and then
+     * the actual CRC and sizes into the header, so that no data has to be buffered.
+     */
+    private void writeEntry(String name, File origin, InputStream data, boolean deflate) throws IOException {
+        checkForDuplicate(name, origin);
+
+        ApkSignerEngine.InspectJarEntryRequest inspectRequest = signer != null ? signer.outputJarEntry(name) : null;
+
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        int method = deflate ? METHOD_DEFLATED : METHOD_STORED;
+        long headerOffset = writeLocalHeader(nameBytes, method, 0, 0, 0);
+
+        long dataOffset = out.position;
+        long uncompressedSize = 0;
+        crc.reset();
+        deflater.reset();
+        int read;
+        while ((read = data.read(buffer)) != -1) {
+            crc.update(buffer, 0, read);
+            uncompressedSize += read;
+            if (inspectRequest != null) {
+                inspectRequest.getDataSink().consume(buffer, 0, read);
+            }
+
+            if (deflate) {
+                deflater.setInput(buffer, 0, read);
+                while (!deflater.needsInput()) {
+                    out.write(deflateBuffer, 0, deflater.deflate(deflateBuffer));
+                }
+            } else {
+                out.write(buffer, 0, read);
+            }
+        }
+        if (deflate) {
+            deflater.finish();
+            while (!deflater.finished()) {
+                out.write(deflateBuffer, 0, deflater.deflate(deflateBuffer));
+            }
+        }
+        long compressedSize = out.position - dataOffset;
+
+        out.flush();
+        ByteBuffer sizes = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+        sizes.putInt((int) crc.getValue())
+                .putInt(checkZip32(compressedSize))
+                .putInt(checkZip32(uncompressedSize))
+                .flip();
+        while (sizes.hasRemaining()) {
+            channel.write(sizes, headerOffset + 14 + sizes.position());
+        }
+
+        if (inspectRequest != null) {
+            inspectRequest.done();
+        }
+        entries.add(new CentralDirectoryEntry(nameBytes, method, (int) crc.getValue(),
+                compressedSize, uncompressedSize, checkZip32(headerOffset)));
+    }
+
+    private void checkForDuplicate(String name, File origin) throws DuplicateEntryException {
+        if (entryOrigins.containsKey(name)) {
+            throw new DuplicateEntryException(name, entryOrigins.get(name), origin);
+        }
+        entryOrigins.put(name, origin);
+    }
+
+    /**
+     * Writes a local file header, padding its extra field so that stored data is aligned.
+     *
+     * @return Offset of the header
+     */
+    private long writeLocalHeader(byte[] nameBytes, int method, int crc, long compressedSize,
+                                  long uncompressedSize) throws IOException {
+        long headerOffset = out.position;
+        int padding = 0;
+        if (method == METHOD_STORED) {
+            long dataOffset = headerOffset + LOCAL_FILE_HEADER_SIZE + nameBytes.length;
+            padding = (int) ((ALIGNMENT - dataOffset % ALIGNMENT) % ALIGNMENT);
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(LOCAL_FILE_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(LOCAL_FILE_HEADER_SIGNATURE)
+                .putShort((short) getVersionNeeded(method))
+                .putShort((short) FLAG_UTF8_NAME)
+                .putShort((short) method)
+                .putShort((short) DOS_TIME)
+                .putShort((short) DOS_DATE)
+                .putInt(crc)
+                .putInt(checkZip32(compressedSize))
+                .putInt(checkZip32(uncompressedSize))
+                .putShort((short) nameBytes.length)
+                .putShort((short) padding);
+        out.write(header.array());
+        out.write(nameBytes);
+        /* Alignment is done with zeroes in the extra field, just like zipalign does */
+        out.write(new byte[padding]);
+        return headerOffset;
+    }
+
+    private ByteBuffer createCentralDirectory() throws IOException {
+        int size = 0;
+        for (CentralDirectoryEntry entry : entries) {
+            size += CENTRAL_DIRECTORY_ENTRY_SIZE + entry.nameBytes.length;
+        }
+
+        ByteBuffer centralDirectory = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        for (CentralDirectoryEntry entry : entries) {
+            centralDirectory.putInt(CENTRAL_DIRECTORY_ENTRY_SIGNATURE)
+                    .putShort((short) getVersionNeeded(entry.method))
+                    .putShort((short) getVersionNeeded(entry.method))
+                    .putShort((short) FLAG_UTF8_NAME)
+                    .putShort((short) entry.method)
+                    .putShort((short) DOS_TIME)
+                    .putShort((short) DOS_DATE)
+                    .putInt(entry.crc)
+                    .putInt(checkZip32(entry.compressedSize))
+                    .putInt(checkZip32(entry.uncompressedSize))
+                    .putShort((short) entry.nameBytes.length)
+                    .putShort((short) 0)
+                    .putShort((short) 0)
+                    .putShort((short) 0)
+                    .putShort((short) 0)
+                    .putInt(0)
+                    .putInt(entry.localHeaderOffset)
+                    .put(entry.nameBytes);
+        }
+        centralDirectory.flip();
+        return centralDirectory;
+    }
+
+    private static int getVersionNeeded(int method) {
+        return method == METHOD_DEFLATED ? 20 : 10;
+    }
+
+    private static int checkZip32(long value) throws IOException {
+        if (value > 0xFFFFFFFFL) {
+            throw new IOException("APK is too large, ZIP64 isn't supported");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Whether a JAR entry should be packaged as Java resource, which is what ApkBuilder considers one.
+     */
+    static boolean isJavaResource(String name) {
+        String[] segments = name.split("/");
+        for (int i = 0; i < segments.length - 1; i++) {
+            String folderName = segments[i];
+            if (folderName.equalsIgnoreCase("CVS") || folderName.equalsIgnoreCase(".svn")
+                    || folderName.equalsIgnoreCase("SCCS") || folderName.equalsIgnoreCase("META-INF")
+                    || folderName.startsWith("_")) {
+                return false;
+            }
+        }
+
+        String fileName = segments[segments.length - 1];
+        if (fileName.isEmpty() || fileName.charAt(0) == '.') return false;
+
+        int lastDot = fileName.lastIndexOf('.');
+        String extension = lastDot == -1 ? "" : fileName.substring(lastDot + 1).toLowerCase(Locale.ROOT);
+        return switch (extension) {
+            case "aidl", "rs", "fs", "rsh", "d", "java", "scala", "class", "scc", "swp" -> false;
+            default -> !fileName.equalsIgnoreCase("thumbs.db") && !fileName.equalsIgnoreCase("picasa.ini")
+                    && !fileName.equalsIgnoreCase("package.html") && !fileName.equalsIgnoreCase("overview.html");
+        };
+    }
+
+    public static class DuplicateEntryException extends IOException {
+
+        private final String archivePath;
+        private final File file1;
+        private final File file2;
+
+        private DuplicateEntryException(String archivePath, File file1, File file2) {
+            super("Duplicate APK entry " + archivePath);
+            this.archivePath = archivePath;
+            this.file1 = file1;
+            this.file2 = file2;
+        }
+
+        public String getArchivePath() {
+            return archivePath;
+        }
+
+        public File getFile1() {
+            return file1;
+        }
+
+        public File getFile2() {
+            return file2;
+        }
+    }
+
+    private record CentralDirectoryEntry(byte[] nameBytes, int method, int crc, long compressedSize,
+                                         long uncompressedSize, int localHeaderOffset) {
+    }
+
+    private static class PositionOutputStream extends FilterOutputStream {
+
+        private long position;
+
+        private PositionOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            position++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            position += len;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package mod.jbk.build;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BooleanSupplier;
+
+import mod.jbk.util.LogUtil;
+
+/**
+ * Runs build steps on a thread pool, each as soon as all steps it depends on finished, so that
+ * independent steps, like extracting built-in libraries and generating view binding, overlap.
+ * <p>
+ * Steps can only depend on steps added before them, so a graph can't have cycles. Once the build
+ * got canceled or a step failed, no more steps get started, and steps that are running already get
+ * to finish.
+ */
+public class BuildGraph {
+
+    private static final String TAG = "BuildGraph";
+
+    private final Map<String, Node> nodes = new LinkedHashMap<>();
+    private final BooleanSupplier canceled;
+    private final BuildTrace trace;
+
+    /**
+     * @param canceled Checked before each step gets started, and once all steps finished
+     * @param trace    Gets a span for each step that ran
+     */
+    public BuildGraph(BooleanSupplier canceled, BuildTrace trace) {
+        this.canceled = canceled;
+        this.trace = trace;
+    }
+
+    /**
+     * @param name         Unique name of the step, for logging and for steps depending on it
+     * @param dependencies Names of steps that have to finish before this one starts
+     */
+    public BuildGraph add(String name, Step step, String... dependencies) {
+        if (nodes.containsKey(name)) {
+            throw new IllegalArgumentException("Step " + name + " was added already");
+        }
+        for (String dependency : dependencies) {
+            if (!nodes.containsKey(dependency)) {
+                throw new IllegalArgumentException("Step " + name + " depends on unknown step " + dependency);
+            }
+        }
+
+        nodes.put(name, new Node(name, step, Arrays.asList(dependencies)));
+        return this;
+    }
+
+    /**
+     * Runs all steps and waits for them to finish.
+     *
+     * @return <code>false</code> if the build got canceled before all steps finished, including
+     * while the last ones were running
+     * @throws Exception The exception of the first step that failed, as thrown by it
+     */
+    public boolean run() throws Exception {
+        Map<String, Integer> remainingDependencies = new HashMap<>();
+        Map<String, List<Node>> dependents = new HashMap<>();
+        List<Node> readyNodes = new ArrayList<>();
+        for (Node node : nodes.values()) {
+            remainingDependencies.put(node.name, node.dependencies.size());
+            for (String dependency : node.dependencies) {
+                dependents.computeIfAbsent(dependency, key -> new ArrayList<>()).add(node);
+            }
+            if (node.dependencies.isEmpty()) {
+                readyNodes.add(node);
+            }
+        }
+
+        int threads = Math.max(1, Math.min(nodes.size(), Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CompletionService<Node> completionService = new ExecutorCompletionService<>(executor);
+        long savedTimeMillis = System.currentTimeMillis();
+        int runningSteps = 0;
+        int finishedSteps = 0;
+        Throwable failure = null;
+        boolean wasCanceled = false;
+
+        try {
+            while (true) {
+                if (failure == null && !wasCanceled) {
+                    for (Node node : readyNodes) {
+                        if (canceled.getAsBoolean()) {
+                            wasCanceled = true;
+                            break;
+                        }
+                        completionService.submit(() -> {
+                            long stepStartedMillis = System.currentTimeMillis();
+                            try (BuildTrace.Span ignored = trace.begin("step", node.name)) {
+                                node.step.run();
+                            }
+                            LogUtil.d(TAG, "Step " + node.name + " took " + (System.currentTimeMillis() - stepStartedMillis) + " ms");
+                            return node;
+                        });
+                        runningSteps++;
+                    }
+                    readyNodes.clear();
+                }
+                if (runningSteps == 0) break;
+
+                Future<Node> finishedStep = completionService.take();
+                runningSteps--;
+                try {
+                    Node node = finishedStep.get();
+                    finishedSteps++;
+                    for (Node dependent : dependents.getOrDefault(node.name, Collections.emptyList())) {
+                        int remaining = remainingDependencies.merge(dependent.name, -1, Integer::sum);
+                        if (remaining == 0) {
+                            readyNodes.add(dependent);
+                        }
+                    }
+                } catch (ExecutionException e) {
+                    if (failure == null) failure = e.getCause();
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        if (failure instanceof Exception exception) throw exception;
+        if (failure instanceof Error error) throw error;
+
+        LogUtil.d(TAG, "Running " + finishedSteps + " of " + nodes.size() + " steps took "
+                + (System.currentTimeMillis() - savedTimeMillis) + " ms");
+        /* Steps that see the build got canceled just return, so they count as finished */
+        return finishedSteps == nodes.size() && !canceled.getAsBoolean();
+    }
+
+    public interface Step {
+        void run() throws Exception;
+    }
+
+    private record Node(String name, Step step, List<String> dependencies) {
+    }
+}
@@ -0,0 +1,177 @@
+package mod.jbk.build;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import pro.sketchware.utility.FileUtil;
+
+/**
+ * Records spans of a build, like compiling resources or dexing classes, and writes them as a trace
+ * in Chrome's Trace Event Format, which <code>chrome://tracing</code> and Perfetto can open.
+ * <p>
+ * Spans may be recorded from any thread, and each span is shown on the row of the thread that began
+ * it. Heap deltas are of the whole process, so spans that overlap with others only get an estimate.
+ */
+public class BuildTrace {
+
+    public static final String ARG_BYTES_IN = "bytesIn";
+    public static final String ARG_BYTES_OUT = "bytesOut";
+    public static final String ARG_CACHE = "cache";
+    public static final String ARG_HEAP_DELTA_KB = "heapDeltaKb";
+
+    private static final int PID = 1;
+
+    private final long startedNanos = System.nanoTime();
+    private final List<Event> events = Collections.synchronizedList(new ArrayList<>());
+    private final Map<Long, String> threadNames = new ConcurrentHashMap<>();
+
+    /**
+     * Begins a span on the current thread, which ends once it gets closed.
+     *
+     * @param category Groups spans in trace viewers, like <code>aapt2</code> or <code>dex</code>
+     */
+    public Span begin(String category, String name) {
+        Thread thread = Thread.currentThread();
+        threadNames.putIfAbsent(thread.getId(), thread.getName());
+        return new Span(category, name, thread.getId());
+    }
+
+    /**
+     * @return Spans that ended so far, in the order they ended
+     */
+    public List<Event> getEvents() {
+        synchronized (events) {
+            return new ArrayList<>(events);
+        }
+    }
+
+    /**
+     * Writes all spans that ended so far to <code>file</code>, replacing it.
+     */
+    public void write(File file) {
+        List<Event> traceEvents = new ArrayList<>();
+        for (Map.Entry<Long, String> threadName : threadNames.entrySet()) {
+            Event event = new Event();
+            event.name = "thread_name";
+            event.ph = "M";
+            event.pid = PID;
+            event.tid = threadName.getKey();
+            event.args = Collections.singletonMap("name", threadName.getValue());
+            traceEvents.add(event);
+        }
+        traceEvents.addAll(getEvents());
+
+        Trace trace = new Trace();
+        trace.traceEvents = traceEvents;
+        FileUtil.writeFile(file.getAbsolutePath(), new Gson().toJson(trace));
+    }
+
+    /**
+     * @return Spans of a trace written by {@link #write(File)}, or an empty list if it doesn't exist
+     * or can't be parsed
+     */
+    public static List<Event> read(File file) {
+        if (!file.isFile()) return Collections.emptyList();
+
+        try {
+            Trace trace = new Gson().fromJson(FileUtil.readFile(file.getAbsolutePath()), Trace.class);
+            if (trace == null || trace.traceEvents == null) return Collections.emptyList();
+
+            List<Event> spans = new ArrayList<>();
+            for (Event event : trace.traceEvents) {
+                if ("X".equals(event.ph)) spans.add(event);
+            }
+            return spans;
+        } catch (JsonParseException e) {
+            return Collections.emptyList();
+        }
+    }
+
+    private static long getUsedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * A complete event of the Trace Event Format, with timestamps and durations in microseconds.
+     */
+    public static class Event {
+        public String name;
+        public String cat;
+        public String ph;
+        public Long ts;
+        public Long dur;
+        public int pid;
+        public long tid;
+        public Map<String, Object> args;
+    }
+
+    private static class Trace {
+        List<Event> traceEvents;
+        String displayTimeUnit = "ms";
+    }
+
+    public class Span implements AutoCloseable {
+        private final String category;
+        private final String name;
+        private final long tid;
+        private final long beganNanos = System.nanoTime();
+        private final long beganHeap = getUsedHeap();
+        private final Map<String, Object> args = new LinkedHashMap<>();
+        private boolean closed;
+
+        private Span(String category, String name, long tid) {
+            this.category = category;
+            this.name = name;
+            this.tid = tid;
+        }
+
+        public Span arg(String key, Object value) {
+            args.put(key, value);
+            return this;
+        }
+
+        public Span bytesIn(long bytes) {
+            return arg(ARG_BYTES_IN, bytes);
+        }
+
+        public Span bytesOut(long bytes) {
+            return arg(ARG_BYTES_OUT, bytes);
+        }
+
+        public Span cacheHit(boolean hit) {
+            return arg(ARG_CACHE, hit ? "hit" : "miss");
+        }
+
+        /**
+         * Ends this span. Closing it again does nothing.
+         */
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+
+            long endedNanos = System.nanoTime();
+            args.put(ARG_HEAP_DELTA_KB, (getUsedHeap() - beganHeap) / 1024);
+
+            Event event = new Event();
+            event.name = name;
+            event.cat = category;
+            event.ph = "X";
+            event.ts = (beganNanos - startedNanos) / 1000;
+            event.dur = (endedNanos - beganNanos) / 1000;
+            event.pid = PID;
+            event.tid = tid;
+            event.args = args;
+            events.add(event);
+        }
+    }
+}
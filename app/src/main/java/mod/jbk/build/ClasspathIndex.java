@@ -0,0 +1,338 @@
+package mod.jbk.build;
+
+import com.android.tools.r8.ClassFileResourceProvider;
+import com.android.tools.r8.ProgramResource;
+import com.android.tools.r8.origin.ArchiveEntryOrigin;
+import com.android.tools.r8.origin.Origin;
+import com.android.tools.r8.origin.PathOrigin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import mod.jbk.build.incremental.ContentHasher;
+import mod.jbk.util.LogUtil;
+
+/**
+ * Indexes classes of classpath JARs once, so that builds don't have to open and scan the central
+ * directories of android.jar and all library JARs again. Indexes stay valid as long as a JAR's path,
+ * size and modification time don't change.
+ * <p>
+ * JARs are kept open and read from at the entries' offsets, not memory-mapped, so that a JAR being
+ * replaced in place, e.g. by downloading a library again, makes reads fail instead of crashing the app.
+ * <p>
+ * D8 and R8 use {@link #getLibraryProvider(File)} instead of opening the JARs on their own, ECJ reads
+ * them through {@link mod.jbk.build.compiler.java.IndexedClasspathJar}, and {@link ApkWriter} copies
+ * the Java resources listed by {@link IndexedJar#getJavaResources()}.
+ */
+public class ClasspathIndex {
+
+    private static final String TAG = "ClasspathIndex";
+    private static final ClasspathIndex INSTANCE = new ClasspathIndex();
+
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int CENTRAL_DIRECTORY_ENTRY_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_FILE_HEADER_SIGNATURE = 0x04034b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int LOCAL_FILE_HEADER_SIZE = 30;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+
+    private final HashMap<String, IndexedJar> jars = new HashMap<>();
+
+    private ClasspathIndex() {
+    }
+
+    public static ClasspathIndex getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return An index of <code>jar</code>'s classes, re-created if the JAR changed since it was last indexed
+     */
+    public synchronized IndexedJar getJar(File jar) throws IOException {
+        String path = jar.getAbsolutePath();
+        String hash = new ContentHasher().putFileMetadata(jar).hash();
+
+        IndexedJar indexedJar = jars.get(path);
+        if (indexedJar == null || !indexedJar.hash.equals(hash)) {
+            if (indexedJar != null) indexedJar.close();
+            long savedTimeMillis = System.currentTimeMillis();
+            indexedJar = new IndexedJar(jar, hash);
+            jars.put(path, indexedJar);
+            LogUtil.d(TAG, "Indexing " + indexedJar.classes.size() + " classes of " + path + " took "
+                    + (System.currentTimeMillis() - savedTimeMillis) + " ms");
+        }
+        return indexedJar;
+    }
+
+    /**
+     * @return A D8/R8 library provider of <code>jar</code>'s classes, or <code>null</code> if it can't be
+     * indexed, in which case it should be passed to D8/R8 as file
+     */
+    public ClassFileResourceProvider getLibraryProvider(File jar) {
+        if (!jar.isFile()) return null;
+
+        try {
+            return getJar(jar);
+        } catch (IOException e) {
+            LogUtil.w(TAG, "Couldn't index " + jar.getAbsolutePath(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Drops indexes of JARs that aren't part of <code>classpath</code> anymore.
+     *
+     * @param classpath Colon-separated paths, like {@link a.a.a.ProjectBuilder#getClasspath()}
+     */
+    public synchronized void retainOnly(String classpath) {
+        Set<String> paths = new HashSet<>();
+        for (String classpathEntry : classpath.split(":")) {
+            if (!classpathEntry.isEmpty()) paths.add(new File(classpathEntry).getAbsolutePath());
+        }
+        Iterator<Map.Entry<String, IndexedJar>> iterator = jars.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, IndexedJar> indexedJar = iterator.next();
+            if (!paths.contains(indexedJar.getKey())) {
+                indexedJar.getValue().close();
+                iterator.remove();
+            }
+        }
+    }
+
+    public static class IndexedJar implements ClassFileResourceProvider {
+
+        private final File jar;
+        private final String hash;
+        private final Origin origin;
+        private final RandomAccessFile file;
+        /**
+         * Class descriptors, e.g. <code>Ljava/lang/Object;</code>, to their entries
+         */
+        private final Map<String, Entry> classes;
+        /**
+         * Entries that get packaged into APKs, see {@link ApkWriter#isJavaResource(String)}
+         */
+        private final List<Entry> javaResources;
+        /**
+         * Package names, e.g. <code>java/lang</code>, to simple names of their classes. Packages
+         * containing only packages are included too. Only created once ECJ needs it.
+         */
+        private Map<String, List<String>> packages;
+
+        private IndexedJar(File jar, String hash) throws IOException {
+            this.jar = jar;
+            this.hash = hash;
+            origin = new PathOrigin(jar.toPath());
+            file = new RandomAccessFile(jar, "r");
+
+            List<Entry> entries;
+            try {
+                entries = readCentralDirectory();
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+            HashMap<String, Entry> classes = new HashMap<>();
+            List<Entry> javaResources = new ArrayList<>();
+            for (Entry entry : entries) {
+                String name = entry.name;
+                if (!name.endsWith("/") && ApkWriter.isJavaResource(name)) {
+                    javaResources.add(entry);
+                }
+                if (!name.endsWith(".class") || name.startsWith("META-INF/") || name.endsWith("module-info.class")) {
+                    continue;
+                }
+
+                classes.put("L" + name.substring(0, name.length() - ".class".length()) + ";", entry);
+            }
+            this.classes = classes;
+            this.javaResources = javaResources;
+        }
+
+        public File getJar() {
+            return jar;
+        }
+
+        public List<Entry> getJavaResources() {
+            return Collections.unmodifiableList(javaResources);
+        }
+
+        /**
+         * @return The class file's content, or <code>null</code> if this JAR doesn't contain the class
+         */
+        public byte[] getClassBytes(String descriptor) throws IOException {
+            Entry entry = classes.get(descriptor);
+            return entry != null ? readEntry(entry) : null;
+        }
+
+        /**
+         * @return Package names with slashes to simple names of the classes in them
+         */
+        public synchronized Map<String, List<String>> getPackages() {
+            if (packages == null) {
+                HashMap<String, List<String>> packages = new HashMap<>();
+                packages.put("", new ArrayList<>());
+                for (String descriptor : classes.keySet()) {
+                    String className = descriptor.substring(1, descriptor.length() - 1);
+                    int lastSlash = className.lastIndexOf('/');
+                    String packageName = lastSlash == -1 ? "" : className.substring(0, lastSlash);
+                    packages.computeIfAbsent(packageName, key -> new ArrayList<>()).add(className.substring(lastSlash + 1));
+                    for (int slash = packageName.lastIndexOf('/'); slash > 0; slash = packageName.lastIndexOf('/', slash - 1)) {
+                        packages.computeIfAbsent(packageName.substring(0, slash), key -> new ArrayList<>());
+                    }
+                }
+                this.packages = Collections.unmodifiableMap(packages);
+            }
+            return packages;
+        }
+
+        /**
+         * @return The entry's data as it's stored in the JAR, so compressed if it's deflated
+         */
+        public ByteBuffer getRawData(Entry entry) throws IOException {
+            long headerOffset = Integer.toUnsignedLong(entry.localHeaderOffset);
+            ByteBuffer header = read(headerOffset, LOCAL_FILE_HEADER_SIZE);
+            if (header.getInt(0) != LOCAL_FILE_HEADER_SIGNATURE) {
+                throw new IOException("Corrupt local header of " + entry.name);
+            }
+            int nameLength = Short.toUnsignedInt(header.getShort(26));
+            int extraLength = Short.toUnsignedInt(header.getShort(28));
+            return read(headerOffset + LOCAL_FILE_HEADER_SIZE + nameLength + extraLength, entry.compressedSize);
+        }
+
+        @Override
+        public Set<String> getClassDescriptors() {
+            return Collections.unmodifiableSet(classes.keySet());
+        }
+
+        @Override
+        public ProgramResource getProgramResource(String descriptor) {
+            Entry entry = classes.get(descriptor);
+            if (entry == null) return null;
+
+            try {
+                return ProgramResource.fromBytes(new ArchiveEntryOrigin(entry.name, origin),
+                        ProgramResource.Kind.CF, readEntry(entry), Collections.singleton(descriptor));
+            } catch (IOException e) {
+                LogUtil.e(TAG, "Couldn't read " + entry.name + " of " + jar.getAbsolutePath(), e);
+                return null;
+            }
+        }
+
+        private List<Entry> readCentralDirectory() throws IOException {
+            long size = file.length();
+            int tailLength = (int) Math.min(size, END_OF_CENTRAL_DIRECTORY_SIZE + 0xFFFF);
+            ByteBuffer tail = read(size - tailLength, tailLength);
+            int endOfCentralDirectory = -1;
+            for (int i = tailLength - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+                if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                    endOfCentralDirectory = i;
+                    break;
+                }
+            }
+            if (endOfCentralDirectory == -1) {
+                throw new IOException(jar.getAbsolutePath() + " isn't a ZIP file");
+            }
+
+            int entryCount = Short.toUnsignedInt(tail.getShort(endOfCentralDirectory + 10));
+            long centralDirectorySize = Integer.toUnsignedLong(tail.getInt(endOfCentralDirectory + 12));
+            long centralDirectoryOffset = Integer.toUnsignedLong(tail.getInt(endOfCentralDirectory + 16));
+            if (entryCount == 0xFFFF || centralDirectoryOffset == 0xFFFFFFFFL) {
+                throw new IOException(jar.getAbsolutePath() + " is a ZIP64 file, which isn't supported");
+            }
+
+            ByteBuffer centralDirectory = read(centralDirectoryOffset, (int) centralDirectorySize);
+            List<Entry> entries = new ArrayList<>(entryCount);
+            int position = 0;
+            for (int i = 0; i < entryCount; i++) {
+                if (centralDirectory.getInt(position) != CENTRAL_DIRECTORY_ENTRY_SIGNATURE) {
+                    throw new IOException("Corrupt central directory in " + jar.getAbsolutePath());
+                }
+                int method = Short.toUnsignedInt(centralDirectory.getShort(position + 10));
+                int crc = centralDirectory.getInt(position + 16);
+                int compressedSize = centralDirectory.getInt(position + 20);
+                int uncompressedSize = centralDirectory.getInt(position + 24);
+                int nameLength = Short.toUnsignedInt(centralDirectory.getShort(position + 28));
+                int extraLength = Short.toUnsignedInt(centralDirectory.getShort(position + 30));
+                int commentLength = Short.toUnsignedInt(centralDirectory.getShort(position + 32));
+                int localHeaderOffset = centralDirectory.getInt(position + 42);
+
+                String name = new String(centralDirectory.array(), position + 46, nameLength, StandardCharsets.UTF_8);
+                entries.add(new Entry(name, method, crc, compressedSize, uncompressedSize, localHeaderOffset));
+                position += 46 + nameLength + extraLength + commentLength;
+            }
+            return entries;
+        }
+
+        /**
+         * Reads <code>length</code> bytes at <code>position</code> of the JAR. Fails if the JAR got
+         * shorter since it was indexed.
+         */
+        private ByteBuffer read(long position, int length) throws IOException {
+            byte[] data = new byte[length];
+            synchronized (file) {
+                file.seek(position);
+                file.readFully(data);
+            }
+            return ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        private void close() {
+            try {
+                file.close();
+            } catch (IOException e) {
+                LogUtil.w(TAG, "Couldn't close " + jar.getAbsolutePath(), e);
+            }
+        }
+
+        /**
+         * @return The entry's uncompressed content
+         */
+        public byte[] readEntry(Entry entry) throws IOException {
+            ByteBuffer data = getRawData(entry);
+            byte[] content = new byte[entry.uncompressedSize];
+            switch (entry.method) {
+                case METHOD_STORED -> data.get(content);
+                case METHOD_DEFLATED -> {
+                    Inflater inflater = new Inflater(true);
+                    try {
+                        inflater.setInput(data.array(), data.arrayOffset(), data.remaining());
+                        int read = 0;
+                        while (read < content.length) {
+                            int inflated = inflater.inflate(content, read, content.length - read);
+                            if (inflated == 0 && (inflater.finished() || inflater.needsInput())) break;
+                            read += inflated;
+                        }
+                        if (read != content.length) {
+                            throw new IOException("Truncated entry " + entry.name);
+                        }
+                    } catch (DataFormatException e) {
+                        throw new IOException("Corrupt entry " + entry.name, e);
+                    } finally {
+                        inflater.end();
+                    }
+                }
+                default -> throw new IOException("Unsupported compression method " + entry.method + " of " + entry.name);
+            }
+            return content;
+        }
+    }
+
+    public record Entry(String name, int method, int crc, int compressedSize, int uncompressedSize, int localHeaderOffset) {
+    }
+}
@@ -1,22 +1,49 @@
 package mod.jbk.build.compiler.dex;
 
+import com.android.tools.r8.ByteDataView;
+import com.android.tools.r8.ClassFileResourceProvider;
 import com.android.tools.r8.CompilationFailedException;
 import com.android.tools.r8.CompilationMode;
 import com.android.tools.r8.D8;
 import com.android.tools.r8.D8Command;
+import com.android.tools.r8.DexFilePerClassFileConsumer;
+import com.android.tools.r8.DiagnosticsHandler;
 import com.android.tools.r8.OutputMode;
+import com.android.tools.r8.ProgramResource;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 import a.a.a.ProjectBuilder;
 import mod.hey.studios.project.ProjectSettings;
+import mod.jbk.build.BuildTrace;
+import mod.jbk.build.ClasspathIndex;
+import mod.jbk.build.incremental.ClassFileInfo;
+import mod.jbk.build.incremental.ContentHasher;
+import mod.jbk.util.LogUtil;
 import pro.sketchware.utility.FileUtil;
 
 public class DexCompiler {
+
+    private static final String TAG = "DexCompiler";
+    /**
+     * Below this API level, D8 desugars default interface methods by copying them into implementing
+     * classes, so a class's DEX output also depends on its supertypes
+     */
+    private static final int MIN_API_LEVEL_DEFAULT_INTERFACE_METHODS = 24;
+
     public static void compileDexFiles(ProjectBuilder builder) throws CompilationFailedException {
         int minApiLevel;
 
@@ -30,24 +57,201 @@ public class DexCompiler {
         Collection<Path> programFiles = new LinkedList<>();
         if (builder.proguard.isShrinkingEnabled()) {
             programFiles.add(Paths.get(builder.yq.proguardClassesPath));
+        } else if (builder.isIncrementalBuildEnabled()) {
+            /* Merge DEX files of single classes, of which only changed ones get dexed again */
+            programFiles.addAll(dexClassesWithCache(builder, minApiLevel));
         } else {
             for (File file : FileUtil.listFilesRecursively(new File(builder.yq.compiledClassesPath), ".class")) {
                 programFiles.add(file.toPath());
             }
         }
 
+        D8.run(createCommand(builder, minApiLevel)
+                .setOutput(new File(builder.yq.binDirectoryPath, "dex").toPath(), OutputMode.DexIndexed)
+                .addProgramFiles(programFiles)
+                .build());
+    }
+
+    private static D8Command.Builder createCommand(ProjectBuilder builder, int minApiLevel) {
+        D8Command.Builder command = D8Command.builder();
         Collection<Path> libraryFiles = new LinkedList<>();
-        for (String jarPath : builder.getClasspath().split(":")) {
-            libraryFiles.add(Paths.get(jarPath));
+        String classpath = builder.getClasspath();
+        ClasspathIndex classpathIndex = ClasspathIndex.getInstance();
+        for (String jarPath : classpath.split(":")) {
+            /* Indexed JARs don't need to be opened and scanned again by D8 */
+            ClassFileResourceProvider indexedJar = classpathIndex.getLibraryProvider(new File(jarPath));
+            if (indexedJar != null) {
+                command.addLibraryResourceProvider(indexedJar);
+            } else {
+                libraryFiles.add(Paths.get(jarPath));
+            }
         }
 
-        D8.run(D8Command.builder()
+        return command
                 .setMode(CompilationMode.RELEASE)
                 .setIntermediate(true)
                 .setMinApiLevel(minApiLevel)
-                .addLibraryFiles(libraryFiles)
-                .setOutput(new File(builder.yq.binDirectoryPath, "dex").toPath(), OutputMode.DexIndexed)
+                .addLibraryFiles(libraryFiles);
+    }
+
+    /**
+     * Dexes each compiled class on its own into <code>bin/dex_cache</code>, named after a hash of the
+     * class file and everything else its DEX output depends on. Classes with an existing DEX file
+     * there aren't dexed again, and DEX files of classes that don't exist anymore get deleted.
+     *
+     * @return Cached DEX files of all compiled classes
+     */
+    private static List<Path> dexClassesWithCache(ProjectBuilder builder, int minApiLevel) throws CompilationFailedException {
+        File classesDirectory = new File(builder.yq.compiledClassesPath);
+        File cacheDirectory = new File(builder.yq.binDirectoryPath, "dex_cache");
+        FileUtil.makeDir(cacheDirectory.getAbsolutePath());
+
+        ContentHasher optionsHasher = new ContentHasher().putString(String.valueOf(minApiLevel));
+        for (String classpathEntry : builder.getClasspath().split(":")) {
+            if (!classpathEntry.isEmpty() && !classpathEntry.equals(builder.yq.compiledClassesPath)) {
+                optionsHasher.putFileMetadata(new File(classpathEntry));
+            }
+        }
+        String optionsHash = optionsHasher.hash();
+
+        /* Descriptors of classes, e.g. Lcom/my/newproject/MainActivity;, to their class files */
+        Map<String, File> classFiles = new HashMap<>();
+        Map<String, String> classHashes = new HashMap<>();
+        Map<String, List<String>> supertypes = new HashMap<>();
+        try {
+            for (File classFile : FileUtil.listFilesRecursively(classesDirectory, ".class")) {
+                String relativePath = classesDirectory.toURI().relativize(classFile.toURI()).getPath();
+                String descriptor = "L" + relativePath.substring(0, relativePath.length() - ".class".length()) + ";";
+                classFiles.put(descriptor, classFile);
+                classHashes.put(descriptor, ContentHasher.hashFile(classFile));
+                if (minApiLevel < MIN_API_LEVEL_DEFAULT_INTERFACE_METHODS) {
+                    List<String> classSupertypes = new ArrayList<>();
+                    for (String supertype : ClassFileInfo.read(classFile).supertypes) {
+                        classSupertypes.add("L" + supertype + ";");
+                    }
+                    supertypes.put(descriptor, classSupertypes);
+                }
+            }
+        } catch (IOException e) {
+            throw new CompilationFailedException("Couldn't read compiled classes: " + e.getMessage());
+        }
+
+        Map<String, File> cachedDexFiles = new HashMap<>();
+        Map<String, File> classesToDex = new HashMap<>();
+        for (Map.Entry<String, File> classFile : classFiles.entrySet()) {
+            String descriptor = classFile.getKey();
+            ContentHasher hasher = new ContentHasher().putString(optionsHash).putString(classHashes.get(descriptor));
+            if (minApiLevel < MIN_API_LEVEL_DEFAULT_INTERFACE_METHODS) {
+                for (String supertype : getProjectSupertypes(descriptor, supertypes)) {
+                    hasher.putString(supertype).putString(classHashes.get(supertype));
+                }
+            }
+
+            File cachedDexFile = new File(cacheDirectory, hasher.hash() + ".dex");
+            cachedDexFiles.put(descriptor, cachedDexFile);
+            if (!cachedDexFile.isFile()) {
+                classesToDex.put(descriptor, classFile.getValue());
+            }
+        }
+
+        try (BuildTrace.Span span = builder.getBuildTrace().begin("dex", "Dex changed classes")) {
+            span.arg("dexedClasses", classesToDex.size()).arg("reusedClasses", classFiles.size() - classesToDex.size());
+            if (!classesToDex.isEmpty()) {
+                long savedTimeMillis = System.currentTimeMillis();
+                dexClasses(builder, minApiLevel, classesToDex, classFiles, cachedDexFiles);
+                LogUtil.d(TAG, "Dexing " + classesToDex.size() + " of " + classFiles.size() + " classes took "
+                        + (System.currentTimeMillis() - savedTimeMillis) + " ms");
+            }
+        }
+
+        Set<String> usedDexFileNames = new HashSet<>();
+        List<Path> dexFiles = new ArrayList<>();
+        for (File cachedDexFile : cachedDexFiles.values()) {
+            /* Classes D8 didn't output anything for have no DEX file */
+            if (cachedDexFile.isFile() && usedDexFileNames.add(cachedDexFile.getName())) {
+                dexFiles.add(cachedDexFile.toPath());
+            }
+        }
+        File[] cacheFiles = cacheDirectory.listFiles();
+        if (cacheFiles != null) {
+            for (File cacheFile : cacheFiles) {
+                if (!usedDexFileNames.contains(cacheFile.getName())) {
+                    FileUtil.deleteFile(cacheFile.getAbsolutePath());
+                }
+            }
+        }
+        Collections.sort(dexFiles);
+        return dexFiles;
+    }
+
+    private static void dexClasses(ProjectBuilder builder, int minApiLevel, Map<String, File> classesToDex,
+                                   Map<String, File> classFiles, Map<String, File> cachedDexFiles) throws CompilationFailedException {
+        List<Path> programFiles = new ArrayList<>();
+        for (File classFile : classesToDex.values()) {
+            programFiles.add(classFile.toPath());
+        }
+
+        /* Desugaring might need other project classes, which aren't part of this D8 run */
+        Set<String> classpathDescriptors = new HashSet<>(classFiles.keySet());
+        classpathDescriptors.removeAll(classesToDex.keySet());
+        ClassFileResourceProvider projectClasses = new ClassFileResourceProvider() {
+            @Override
+            public Set<String> getClassDescriptors() {
+                return classpathDescriptors;
+            }
+
+            @Override
+            public ProgramResource getProgramResource(String descriptor) {
+                if (!classpathDescriptors.contains(descriptor)) return null;
+
+                return ProgramResource.fromFile(ProgramResource.Kind.CF, classFiles.get(descriptor).toPath());
+            }
+        };
+
+        List<String> failedWrites = Collections.synchronizedList(new ArrayList<>());
+        D8.run(createCommand(builder, minApiLevel)
+                .addClasspathResourceProvider(projectClasses)
                 .addProgramFiles(programFiles)
+                .setProgramConsumer(new DexFilePerClassFileConsumer.ForwardingConsumer(null) {
+                    @Override
+                    public void accept(String primaryClassDescriptor, ByteDataView data, Set<String> descriptors, DiagnosticsHandler handler) {
+                        File cachedDexFile = cachedDexFiles.get(primaryClassDescriptor);
+                        if (cachedDexFile == null) {
+                            failedWrites.add(primaryClassDescriptor);
+                            return;
+                        }
+
+                        File temporaryFile = new File(cachedDexFile.getAbsolutePath() + ".tmp");
+                        try {
+                            FileUtil.writeBytes(temporaryFile, data.copyByteData());
+                            if (!temporaryFile.renameTo(cachedDexFile)) {
+                                throw new IOException("Couldn't rename " + temporaryFile.getAbsolutePath());
+                            }
+                        } catch (IOException e) {
+                            LogUtil.e(TAG, "Couldn't cache DEX file of " + primaryClassDescriptor, e);
+                            failedWrites.add(primaryClassDescriptor);
+                        }
+                    }
+                })
                 .build());
+
+        if (!failedWrites.isEmpty()) {
+            throw new CompilationFailedException("Couldn't cache DEX files of these classes: " + failedWrites);
+        }
+    }
+
+    /**
+     * @return Descriptors of all project classes <code>descriptor</code> extends or implements, also indirectly
+     */
+    private static Set<String> getProjectSupertypes(String descriptor, Map<String, List<String>> supertypes) {
+        Set<String> projectSupertypes = new TreeSet<>();
+        List<String> queue = new ArrayList<>(supertypes.getOrDefault(descriptor, Collections.emptyList()));
+        while (!queue.isEmpty()) {
+            String supertype = queue.remove(queue.size() - 1);
+            if (supertypes.containsKey(supertype) && projectSupertypes.add(supertype)) {
+                queue.addAll(supertypes.get(supertype));
+            }
+        }
+        return projectSupertypes;
     }
 }
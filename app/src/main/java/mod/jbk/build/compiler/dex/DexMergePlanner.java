@@ -0,0 +1,94 @@
+package mod.jbk.build.compiler.dex;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import mod.agus.jcoderz.dex.Dex;
+import mod.agus.jcoderz.dex.FieldId;
+import mod.agus.jcoderz.dex.MethodId;
+import mod.agus.jcoderz.dex.ProtoId;
+import mod.jbk.util.LogUtil;
+
+/**
+ * Decides which DEX files can be merged into one without exceeding the 64K limit of any ID table.
+ * <p>
+ * IDs of a DEX file point into its own string and type tables, so they're resolved to descriptors
+ * first, e.g. <code>Lcom/example/Foo;-&gt;bar:I</code> for a field. The IDs of the DEX file being
+ * merged into are kept in hash sets, so checking a DEX file takes time linear in its ID count.
+ */
+public class DexMergePlanner {
+
+    private static final String TAG = "DexMergePlanner";
+    private static final int MAX_IDS = 0xffff;
+
+    private final Set<String> types = new HashSet<>();
+    private final Set<String> protos = new HashSet<>();
+    private final Set<String> fields = new HashSet<>();
+    private final Set<String> methods = new HashSet<>();
+
+    /**
+     * Adds a DEX file's IDs to the DEX file being merged into, if they all fit.
+     *
+     * @param name Name of the DEX file being merged into, for logging
+     * @return <code>false</code> if any ID table would overflow, in which case nothing was added
+     */
+    public boolean tryAdd(Dex dex, String name) {
+        List<String> typeNames = dex.typeNames();
+        List<String> strings = dex.strings();
+        List<String> protoDescriptors = new ArrayList<>(dex.protoIds().size());
+        for (ProtoId protoId : dex.protoIds()) {
+            StringBuilder descriptor = new StringBuilder("(");
+            if (protoId.getParametersOffset() != 0) {
+                for (short parameterType : dex.readTypeList(protoId.getParametersOffset()).getTypes()) {
+                    descriptor.append(typeNames.get(Short.toUnsignedInt(parameterType)));
+                }
+            }
+            protoDescriptors.add(descriptor.append(')').append(typeNames.get(protoId.getReturnTypeIndex())).toString());
+        }
+        List<String> fieldDescriptors = new ArrayList<>(dex.fieldIds().size());
+        for (FieldId fieldId : dex.fieldIds()) {
+            fieldDescriptors.add(typeNames.get(fieldId.getDeclaringClassIndex()) + "->"
+                    + strings.get(fieldId.getNameIndex()) + ":" + typeNames.get(fieldId.getTypeIndex()));
+        }
+        List<String> methodDescriptors = new ArrayList<>(dex.methodIds().size());
+        for (MethodId methodId : dex.methodIds()) {
+            methodDescriptors.add(typeNames.get(methodId.getDeclaringClassIndex()) + "->"
+                    + strings.get(methodId.getNameIndex()) + protoDescriptors.get(methodId.getProtoIndex()));
+        }
+
+        if (!fits(types, typeNames, "type", name) || !fits(protos, protoDescriptors, "proto", name)
+                || !fits(fields, fieldDescriptors, "field", name) || !fits(methods, methodDescriptors, "method", name)) {
+            return false;
+        }
+
+        types.addAll(typeNames);
+        protos.addAll(protoDescriptors);
+        fields.addAll(fieldDescriptors);
+        methods.addAll(methodDescriptors);
+        return true;
+    }
+
+    /**
+     * Starts planning the next DEX file to merge into.
+     */
+    public void reset() {
+        types.clear();
+        protos.clear();
+        fields.clear();
+        methods.clear();
+    }
+
+    private static boolean fits(Set<String> mergedIds, List<String> ids, String kind, String name) {
+        int newIds = 0;
+        for (String id : ids) {
+            if (!mergedIds.contains(id) && mergedIds.size() + ++newIds > MAX_IDS) {
+                LogUtil.d(TAG, "Can't merge DEX file to " + name + " because it has too many new " + kind
+                        + " IDs. " + name + " will have " + mergedIds.size() + " " + kind + " IDs");
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,174 @@
+package mod.jbk.build.compiler.dex;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import a.a.a.ProjectBuilder;
+import mod.agus.jcoderz.dex.Dex;
+import mod.agus.jcoderz.dex.DexIndexOverflowException;
+import mod.agus.jcoderz.dx.command.dexer.DxContext;
+import mod.agus.jcoderz.dx.command.dexer.Main;
+import mod.agus.jcoderz.dx.merge.CollisionPolicy;
+import mod.agus.jcoderz.dx.merge.DexMerger;
+import mod.jbk.build.BuildTrace;
+import mod.jbk.build.incremental.ContentHasher;
+import mod.jbk.util.LogUtil;
+import pro.sketchware.utility.FileUtil;
+
+public class DxCompiler {
+
+    private static final String TAG = "DxCompiler";
+    /**
+     * How many parts {@link #compileDexFilesWithCache(ProjectBuilder, List)} splits classes into. Changing
+     * a class only dexes its part again, and dexing all classes never takes more than this many Dx runs.
+     */
+    private static final int CACHE_BUCKETS = 16;
+
+    /**
+     * Runs Dx in-process.
+     *
+     * @param args Command-line arguments, like <code>--multi-dex</code>
+     * @return Dx's exit code, 0 on success
+     */
+    public static int run(List<String> args) throws Exception {
+        Main.Arguments arguments = new Main.Arguments();
+        Method parseMethod = Main.Arguments.class.getDeclaredMethod("parse", String[].class);
+        parseMethod.setAccessible(true);
+        parseMethod.invoke(arguments, (Object) args.toArray(new String[0]));
+
+        return Main.run(arguments);
+    }
+
+    /**
+     * Spreads the project's classes over {@link #CACHE_BUCKETS} buckets by their top-level class's
+     * name, dexes each bucket into <code>bin/dx_cache</code>, named after a hash of its class files,
+     * and merges those DEX files into <code>bin/dex/classes.dex</code>. Only buckets without a cached
+     * DEX file get dexed, and DEX files of buckets that changed get deleted.
+     *
+     * @param options Dx arguments for all runs, like <code>--debug</code>
+     * @return <code>false</code> if the project's classes don't fit into one DEX file, in which
+     * case they should be dexed with <code>--multi-dex</code> instead
+     */
+    public static boolean compileDexFilesWithCache(ProjectBuilder builder, List<String> options) throws Exception {
+        File classesDirectory = new File(builder.yq.compiledClassesPath);
+        File cacheDirectory = new File(builder.yq.binDirectoryPath, "dx_cache");
+        FileUtil.makeDir(cacheDirectory.getAbsolutePath());
+
+        /* Thread count doesn't change Dx's output, and buckets get dexed in parallel instead */
+        List<String> bucketOptions = new ArrayList<>();
+        for (String option : options) {
+            if (!option.startsWith("--num-threads")) bucketOptions.add(option);
+        }
+
+        /* Class files' paths relative to the classes directory, e.g. com/my/newproject/MainActivity$1.class, by bucket */
+        List<Map<String, File>> buckets = new ArrayList<>();
+        for (int i = 0; i < CACHE_BUCKETS; i++) {
+            buckets.add(new TreeMap<>());
+        }
+        for (File classFile : FileUtil.listFilesRecursively(classesDirectory, ".class")) {
+            String relativePath = classesDirectory.toURI().relativize(classFile.toURI()).getPath();
+            String className = relativePath.substring(0, relativePath.length() - ".class".length());
+            int nestedClassSeparator = className.indexOf('$', className.lastIndexOf('/') + 1);
+            String topLevelClassName = nestedClassSeparator == -1 ? className : className.substring(0, nestedClassSeparator);
+            buckets.get(Math.floorMod(topLevelClassName.hashCode(), CACHE_BUCKETS)).put(relativePath, classFile);
+        }
+
+        List<File> dexFiles = new ArrayList<>();
+        List<Callable<Void>> dexTasks = new ArrayList<>();
+        for (Map<String, File> bucket : buckets) {
+            if (bucket.isEmpty()) continue;
+
+            /* Relative paths, so that moving the project keeps the cache valid */
+            ContentHasher hasher = new ContentHasher().putString(String.join(" ", bucketOptions));
+            for (Map.Entry<String, File> classFile : bucket.entrySet()) {
+                hasher.putString(classFile.getKey()).putFile(classFile.getValue());
+            }
+
+            String hash = hasher.hash();
+            File cachedDexFile = new File(cacheDirectory, hash + ".dex");
+            dexFiles.add(cachedDexFile);
+            if (!cachedDexFile.isFile()) {
+                dexTasks.add(() -> {
+                    /* Dx only writes direct DEX output to files ending with .dex */
+                    File temporaryFile = new File(cacheDirectory, hash + "-tmp.dex");
+                    List<String> args = new ArrayList<>(bucketOptions);
+                    args.add("--num-threads=1");
+                    /* Dx's strict check wants class files' paths relative to the classes directory */
+                    args.add("--no-strict");
+                    args.add("--output=" + temporaryFile.getAbsolutePath());
+                    for (File classFile : bucket.values()) {
+                        args.add(classFile.getAbsolutePath());
+                    }
+
+                    int result = run(args);
+                    if (result != 0 || !temporaryFile.renameTo(cachedDexFile)) {
+                        FileUtil.deleteFile(temporaryFile.getAbsolutePath());
+                        throw new IOException("Dx failed to dex " + bucket.size() + " classes, like "
+                                + bucket.keySet().iterator().next() + ", with exit code " + result);
+                    }
+                    return null;
+                });
+            }
+        }
+
+        try (BuildTrace.Span span = builder.getBuildTrace().begin("dex", "Dex changed classes")) {
+            span.arg("dexedClassBuckets", dexTasks.size()).arg("reusedClassBuckets", dexFiles.size() - dexTasks.size());
+            if (!dexTasks.isEmpty()) {
+                ExecutorService executor = Executors.newFixedThreadPool(
+                        Math.min(dexTasks.size(), Runtime.getRuntime().availableProcessors()));
+                try {
+                    for (Future<Void> future : executor.invokeAll(dexTasks)) {
+                        future.get();
+                    }
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception exception) throw exception;
+                    throw e;
+                } finally {
+                    executor.shutdownNow();
+                }
+            }
+        }
+        LogUtil.d(TAG, "Dexed " + dexTasks.size() + " of " + dexFiles.size() + " buckets of classes");
+
+        Set<String> usedDexFileNames = new HashSet<>();
+        for (File dexFile : dexFiles) {
+            usedDexFileNames.add(dexFile.getName());
+        }
+        File[] cacheFiles = cacheDirectory.listFiles();
+        if (cacheFiles != null) {
+            for (File cacheFile : cacheFiles) {
+                if (!usedDexFileNames.contains(cacheFile.getName())) {
+                    FileUtil.deleteFile(cacheFile.getAbsolutePath());
+                }
+            }
+        }
+
+        if (dexFiles.isEmpty()) return true;
+
+        Dex[] dexes = new Dex[dexFiles.size()];
+        for (int i = 0; i < dexes.length; i++) {
+            dexes[i] = Dex.map(dexFiles.get(i));
+        }
+        File mergedDexFile = new File(builder.yq.binDirectoryPath + File.separator + "dex", "classes.dex");
+        try {
+            new DexMerger(dexes, CollisionPolicy.FAIL, new DxContext(), mergedDexFile).merge();
+            return true;
+        } catch (DexIndexOverflowException e) {
+            LogUtil.d(TAG, "Classes don't fit into one DEX file, dexing them without cache", e);
+            FileUtil.deleteFile(mergedDexFile.getAbsolutePath());
+            return false;
+        }
+    }
+}
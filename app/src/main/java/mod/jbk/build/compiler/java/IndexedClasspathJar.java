@@ -0,0 +1,152 @@
+package mod.jbk.build.compiler.java;
+
+import org.eclipse.jdt.internal.compiler.batch.ClasspathJar;
+import org.eclipse.jdt.internal.compiler.batch.FileSystem;
+import org.eclipse.jdt.internal.compiler.classfmt.ClassFileReader;
+import org.eclipse.jdt.internal.compiler.classfmt.ClassFormatException;
+import org.eclipse.jdt.internal.compiler.env.NameEnvironmentAnswer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import mod.jbk.build.ClasspathIndex;
+import mod.jbk.util.LogUtil;
+
+/**
+ * A classpath JAR for ECJ that reads classes through {@link ClasspathIndex}, so that ECJ doesn't have
+ * to open android.jar and all library JARs and list their entries again for every compilation.
+ * Nothing gets released by {@link #reset()} when ECJ is done, as the index is kept across builds.
+ */
+public class IndexedClasspathJar extends ClasspathJar {
+
+    private static final String TAG = "IndexedClasspathJar";
+
+    private final ClasspathIndex.IndexedJar indexedJar;
+
+    private IndexedClasspathJar(ClasspathIndex.IndexedJar indexedJar, ClasspathJar classpath) {
+        super(indexedJar.getJar(), false, classpath.accessRuleSet, classpath.getDestinationPath());
+        this.indexedJar = indexedJar;
+    }
+
+    /**
+     * Replaces ECJ's own classpath JARs with ones reading through {@link ClasspathIndex}.
+     *
+     * @param classpaths ECJ's classpath, as created from <code>-cp</code>
+     * @param classpath  The colon-separated classpath passed to ECJ
+     * @return <code>classpaths</code> with JARs that could be indexed replaced
+     */
+    public static FileSystem.Classpath[] replaceIndexedJars(FileSystem.Classpath[] classpaths, String classpath) {
+        /* ECJ's classpath entries have canonical paths */
+        Map<String, ClasspathIndex.IndexedJar> indexedJars = new HashMap<>();
+        for (String classpathEntry : classpath.split(":")) {
+            File jar = new File(classpathEntry);
+            if (!jar.isFile()) continue;
+
+            try {
+                indexedJars.put(jar.getCanonicalPath(), ClasspathIndex.getInstance().getJar(jar));
+            } catch (IOException e) {
+                LogUtil.w(TAG, "Couldn't index " + jar.getAbsolutePath() + ", ECJ reads it on its own", e);
+            }
+        }
+
+        FileSystem.Classpath[] replacedClasspaths = classpaths.clone();
+        for (int i = 0; i < replacedClasspaths.length; i++) {
+            FileSystem.Classpath entry = replacedClasspaths[i];
+            /* Not subclasses, like ones for multi-release JARs */
+            if (entry.getClass() == ClasspathJar.class) {
+                ClasspathIndex.IndexedJar indexedJar = indexedJars.get(entry.getPath());
+                if (indexedJar != null) {
+                    replacedClasspaths[i] = new IndexedClasspathJar(indexedJar, (ClasspathJar) entry);
+                }
+            }
+        }
+        return replacedClasspaths;
+    }
+
+    @Override
+    public void initialize() {
+        /* The index has the JAR open already */
+    }
+
+    @Override
+    public List<FileSystem.Classpath> fetchLinkedJars(FileSystem.ClasspathSectionProblemReporter problemReporter) {
+        return null;
+    }
+
+    @Override
+    public NameEnvironmentAnswer findClass(char[] typeName, String qualifiedPackageName, String moduleName,
+                                           String qualifiedBinaryFileName, boolean asBinaryOnly) {
+        if (!isPackage(qualifiedPackageName, moduleName)) return null;
+
+        String className = qualifiedBinaryFileName.substring(0, qualifiedBinaryFileName.length() - ".class".length());
+        try {
+            byte[] classBytes = indexedJar.getClassBytes("L" + className + ";");
+            if (classBytes == null) return null;
+
+            ClassFileReader reader = new ClassFileReader(classBytes, qualifiedBinaryFileName.toCharArray());
+            return new NameEnvironmentAnswer(reader, fetchAccessRestriction(qualifiedBinaryFileName), reader.moduleName);
+        } catch (ClassFormatException | IOException e) {
+            /* Like ECJ does, treat it as if the class was missing */
+            return null;
+        }
+    }
+
+    @Override
+    public boolean hasAnnotationFileFor(String qualifiedTypeName) {
+        return false;
+    }
+
+    @Override
+    public char[][][] findTypeNames(String qualifiedPackageName, String moduleName) {
+        List<String> classNames = indexedJar.getPackages().get(qualifiedPackageName);
+        if (classNames == null || classNames.isEmpty()) return null;
+
+        char[][] packageName = qualifiedPackageName.isEmpty() ? new char[0][] : splitPackageName(qualifiedPackageName);
+        char[][][] typeNames = new char[classNames.size()][][];
+        for (int i = 0; i < typeNames.length; i++) {
+            typeNames[i] = new char[packageName.length + 1][];
+            System.arraycopy(packageName, 0, typeNames[i], 0, packageName.length);
+            typeNames[i][packageName.length] = classNames.get(i).toCharArray();
+        }
+        return typeNames;
+    }
+
+    @Override
+    public char[][] getModulesDeclaringPackage(String qualifiedPackageName, String moduleName) {
+        return singletonModuleNameIf(indexedJar.getPackages().containsKey(qualifiedPackageName));
+    }
+
+    @Override
+    public boolean hasCompilationUnit(String qualifiedPackageName, String moduleName) {
+        List<String> classNames = indexedJar.getPackages().get(qualifiedPackageName);
+        return classNames != null && !classNames.isEmpty();
+    }
+
+    @Override
+    public char[][] listPackages() {
+        List<char[]> packageNames = new ArrayList<>();
+        for (Map.Entry<String, List<String>> entry : indexedJar.getPackages().entrySet()) {
+            if (!entry.getKey().isEmpty() && !entry.getValue().isEmpty()) {
+                packageNames.add(entry.getKey().replace('/', '.').toCharArray());
+            }
+        }
+        return packageNames.toArray(new char[0][]);
+    }
+
+    @Override
+    public void reset() {
+        /* Keep the index, it gets released by ClasspathIndex once the JAR isn't used anymore */
+    }
+
+    private static char[][] splitPackageName(String qualifiedPackageName) {
+        List<char[]> parts = new ArrayList<>();
+        for (String part : qualifiedPackageName.split("/")) {
+            parts.add(part.toCharArray());
+        }
+        return parts.toArray(new char[0][]);
+    }
+}
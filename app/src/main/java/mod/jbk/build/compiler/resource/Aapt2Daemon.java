@@ -0,0 +1,169 @@
+package mod.jbk.build.compiler.resource;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import mod.jbk.util.LogUtil;
+
+/**
+ * Keeps an <code>aapt2 daemon</code> process alive across builds, so that compile and link jobs
+ * don't have to pay for spawning a process and AAPT2 starting up every time.
+ * <p>
+ * The daemon reads a job's arguments line by line from stdin, terminated by an empty line,
+ * prints diagnostics, and ends each job's output with a <code>Done</code> line. Depending on the
+ * AAPT2 version, that line is printed to stdout or stderr, so both are read as one stream.
+ */
+public class Aapt2Daemon {
+
+    private static final String TAG = "Aapt2Daemon";
+    private static final String LINE_READY = "Ready";
+    private static final String LINE_DONE = "Done";
+    private static final long STARTUP_TIMEOUT_SECONDS = 10;
+    /**
+     * Marks the end of {@link #output}
+     */
+    private static final String END_OF_STREAM = new String("<end of stream>");
+
+    private static Aapt2Daemon instance;
+    /**
+     * Path and modification time of an AAPT2 binary that doesn't support daemon mode
+     */
+    private static String unsupportedBinary;
+
+    private final File aapt2;
+    private final long aapt2LastModified;
+    private final Process process;
+    private final BufferedWriter stdin;
+    private final BlockingQueue<String> output = new LinkedBlockingQueue<>();
+
+    private Aapt2Daemon(File aapt2) throws IOException {
+        this.aapt2 = aapt2;
+        aapt2LastModified = aapt2.lastModified();
+        process = new ProcessBuilder(aapt2.getAbsolutePath(), "daemon")
+                .redirectErrorStream(true)
+                .start();
+        stdin = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+        pipeLines(process.getInputStream(), output);
+
+        String firstLine;
+        try {
+            firstLine = output.poll(STARTUP_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            process.destroy();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the AAPT2 daemon to start", e);
+        }
+        if (!LINE_READY.equals(firstLine)) {
+            process.destroy();
+            throw new IOException("AAPT2 daemon didn't start, first output line: " + firstLine);
+        }
+    }
+
+    /**
+     * @return A running daemon of <code>aapt2</code>, or <code>null</code> if the binary doesn't support daemon mode
+     */
+    public static synchronized Aapt2Daemon get(File aapt2) {
+        String binary = aapt2.getAbsolutePath() + ":" + aapt2.lastModified();
+        if (binary.equals(unsupportedBinary)) return null;
+
+        if (instance != null && (!instance.process.isAlive() || !instance.aapt2.equals(aapt2)
+                || instance.aapt2LastModified != aapt2.lastModified())) {
+            instance.stop();
+            instance = null;
+        }
+        if (instance == null) {
+            try {
+                instance = new Aapt2Daemon(aapt2);
+                LogUtil.d(TAG, "Started AAPT2 daemon of " + aapt2.getAbsolutePath());
+            } catch (IOException e) {
+                LogUtil.e(TAG, "Couldn't start AAPT2 daemon, falling back to one process per invocation", e);
+                unsupportedBinary = binary;
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Stops the running daemon, if any. Called once the user leaves the editor, the next build
+     * starts a new one.
+     */
+    public static synchronized void shutdown() {
+        if (instance != null) {
+            instance.stop();
+            instance = null;
+        }
+    }
+
+    /**
+     * Runs an AAPT2 command, e.g. <code>compile</code> or <code>link</code> with its arguments.
+     *
+     * @return Everything AAPT2 printed for this command, empty if there were no errors or warnings
+     * @throws IOException Thrown if the daemon died, in which case the command should be retried without it
+     */
+    public synchronized String execute(List<String> arguments) throws IOException {
+        if (!process.isAlive()) throw new IOException("AAPT2 daemon isn't running anymore");
+
+        for (String argument : arguments) {
+            if (argument.contains("\n")) {
+                throw new IOException("Argument can't be passed to the AAPT2 daemon: " + argument);
+            }
+            stdin.write(argument);
+            stdin.newLine();
+        }
+        stdin.newLine();
+        stdin.flush();
+
+        StringBuilder log = new StringBuilder();
+        try {
+            String line;
+            while (!LINE_DONE.equals(line = output.take())) {
+                //noinspection StringEquality
+                if (line == END_OF_STREAM) throw new IOException("AAPT2 daemon exited while running a command");
+                log.append(line).append(System.lineSeparator());
+            }
+        } catch (InterruptedException e) {
+            // The daemon is now in an unknown state
+            stop();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for AAPT2", e);
+        }
+        return log.toString();
+    }
+
+    private void stop() {
+        try {
+            stdin.write("quit");
+            stdin.newLine();
+            stdin.newLine();
+            stdin.flush();
+        } catch (IOException ignored) {
+        }
+        process.destroy();
+    }
+
+    private static void pipeLines(InputStream stream, BlockingQueue<String> queue) {
+        Thread thread = new Thread(() -> {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    queue.add(line);
+                }
+            } catch (IOException ignored) {
+            } finally {
+                queue.add(END_OF_STREAM);
+            }
+        }, TAG + "-output");
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
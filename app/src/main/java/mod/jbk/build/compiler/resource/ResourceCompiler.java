@@ -8,6 +8,16 @@ import android.content.pm.PackageManager;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import a.a.a.Jp;
 import a.a.a.ProjectBuilder;
@@ -16,7 +26,10 @@ import mod.agus.jcoderz.editor.manage.library.locallibrary.ManageLocalLibrary;
 import mod.hey.studios.build.BuildSettings;
 import mod.hey.studios.project.ProjectSettings;
 import mod.jbk.build.BuildProgressReceiver;
+import mod.jbk.build.BuildTrace;
 import mod.jbk.build.BuiltInLibraries;
+import mod.jbk.build.incremental.ContentHasher;
+import mod.jbk.build.incremental.HashManifest;
 import mod.jbk.diagnostic.MissingFileException;
 import mod.jbk.util.LogUtil;
 import pro.sketchware.SketchApplication;
@@ -97,12 +110,21 @@ public class ResourceCompiler {
      */
     static class Aapt2Compiler implements Compiler {
 
+        private static final String FLATS_PROJECT = "project";
+        private static final String FLATS_IMPORTED = "project-imported";
+        private static final String LOCAL_LIBRARY_COMPILED_RESOURCES_PREFIX = "compiled-res-";
+
         private final boolean buildAppBundle;
 
         private final File aapt2;
         private final ProjectBuilder buildHelper;
         private final File compiledBuiltInLibraryResourcesDirectory;
+        /**
+         * Compiled resources of local libraries, in the order they should be linked
+         */
+        private final ArrayList<File> compiledLocalLibraryResources = new ArrayList<>();
         private ProgressListener progressListener;
+        private String aapt2Hash;
 
         public Aapt2Compiler(ProjectBuilder buildHelper, File aapt2, boolean buildAppBundle) {
             this.buildHelper = buildHelper;
@@ -113,27 +135,36 @@ public class ResourceCompiler {
 
         @Override
         public void compile() throws zy, MissingFileException {
-            String outputPath = buildHelper.yq.binDirectoryPath + File.separator + "res";
-            emptyOrCreateDirectory(outputPath);
-
+            BuildTrace trace = buildHelper.getBuildTrace();
             long savedTimeMillis = System.currentTimeMillis();
             if (progressListener != null) {
                 progressListener.onProgressUpdate("Compiling resources with AAPT2...", 9);
             }
-            compileBuiltInLibraryResources();
+            try (BuildTrace.Span span = trace.begin("aapt2", "Compile built-in library resources")) {
+                compileBuiltInLibraryResources(span);
+            }
             LogUtil.d(TAG + ":c", "Compiling built-in library resources took " + (System.currentTimeMillis() - savedTimeMillis) + " ms");
             savedTimeMillis = System.currentTimeMillis();
-            compileLocalLibraryResources(outputPath);
+            try (BuildTrace.Span span = trace.begin("aapt2", "Compile local library resources")) {
+                compileLocalLibraryResources(span);
+            }
             LogUtil.d(TAG + ":c", "Compiling local library resources took " + (System.currentTimeMillis() - savedTimeMillis) + " ms");
             savedTimeMillis = System.currentTimeMillis();
-            compileProjectResources(outputPath);
+            try (BuildTrace.Span span = trace.begin("aapt2", "Compile project generated resources")) {
+                compileProjectResources(span);
+            }
             LogUtil.d(TAG + ":c", "Compiling project generated resources took " + (System.currentTimeMillis() - savedTimeMillis) + " ms");
             savedTimeMillis = System.currentTimeMillis();
-            compileImportedResources(outputPath);
+            try (BuildTrace.Span span = trace.begin("aapt2", "Compile project imported resources")) {
+                compileImportedResources(span);
+            }
             LogUtil.d(TAG + ":c", "Compiling project imported resources took " + (System.currentTimeMillis() - savedTimeMillis) + " ms");
 
             savedTimeMillis = System.currentTimeMillis();
-            link();
+            try (BuildTrace.Span span = trace.begin("aapt2", "Link resources")) {
+                link();
+                span.bytesOut(new File(buildHelper.yq.resourcesApkPath).length());
+            }
             LogUtil.d(TAG + ":c", "Linking resources took " + (System.currentTimeMillis() - savedTimeMillis) + " ms");
         }
 
@@ -143,7 +174,6 @@ public class ResourceCompiler {
          * @throws zy Thrown to be caught by DesignActivity to show an error Snackbar.
          */
         public void link() throws zy, MissingFileException {
-            String resourcesPath = buildHelper.yq.binDirectoryPath + File.separator + "res";
             if (progressListener != null)
                 progressListener.onProgressUpdate("Linking resources with AAPT2...", 10);
 
@@ -218,30 +248,21 @@ public class ResourceCompiler {
             }
 
             /* Include compiled local libraries' resources */
-            File[] filesInCompiledResourcesPath = new File(resourcesPath).listFiles();
-            if (filesInCompiledResourcesPath != null) {
-                for (File file : filesInCompiledResourcesPath) {
-                    if (file.isFile()) {
-                        if (!file.getName().equals("project.zip") || !file.getName().equals("project-imported.zip")) {
-                            args.add("-R");
-                            args.add(file.getAbsolutePath());
-                        }
-                    }
-                }
+            for (File compiledResources : compiledLocalLibraryResources) {
+                args.add("-R");
+                args.add(compiledResources.getAbsolutePath());
             }
 
             /* Include compiled project resources */
-            File projectArchive = new File(resourcesPath, "project.zip");
-            if (projectArchive.exists()) {
+            for (File flat : listFlats(getFlatsDirectory(FLATS_PROJECT))) {
                 args.add("-R");
-                args.add(projectArchive.getAbsolutePath());
+                args.add(flat.getAbsolutePath());
             }
 
             /* Include compiled imported project resources */
-            File projectImportedArchive = new File(resourcesPath, "project-imported.zip");
-            if (projectImportedArchive.exists()) {
+            for (File flat : listFlats(getFlatsDirectory(FLATS_IMPORTED))) {
                 args.add("-R");
-                args.add(projectImportedArchive.getAbsolutePath());
+                args.add(flat.getAbsolutePath());
             }
 
             /* Add R.java */
@@ -270,78 +291,306 @@ public class ResourceCompiler {
             args.add(buildHelper.yq.resourcesApkPath);
 
             LogUtil.d(TAG + ":l", args.toString());
-            BinaryExecutor executor = new BinaryExecutor();
-            executor.setCommands(args);
-            if (!executor.execute().isEmpty()) {
-                LogUtil.e(TAG + ":l", executor.getLog());
-                throw new zy(executor.getLog());
+            String log = runAapt2(args);
+            if (!log.isEmpty()) {
+                LogUtil.e(TAG + ":l", log);
+                throw new zy(log);
             }
         }
 
-        private void compileProjectResources(String outputPath) throws zy, MissingFileException {
+        private void compileProjectResources(BuildTrace.Span span) throws zy, MissingFileException {
             compilingAssertDirectoryExists(buildHelper.yq.resDirectoryPath);
+            compileResourcesIncrementally(new File(buildHelper.yq.resDirectoryPath), FLATS_PROJECT, span);
+        }
+
+        /**
+         * Compiles a res directory file by file to <code>.flat</code>s in {@link #getFlatsDirectory(String)}.
+         * Files whose content didn't change since the last build aren't compiled again, and <code>.flat</code>s
+         * of files that got removed are deleted.
+         *
+         * @param span Gets the number of compiled and reused files
+         */
+        private void compileResourcesIncrementally(File resDirectory, String name, BuildTrace.Span span) throws zy {
+            File flatsDirectory = getFlatsDirectory(name);
+            HashManifest hashes = new HashManifest(new File(flatsDirectory.getParentFile(), name + ".json"));
+            FileUtil.makeDir(flatsDirectory.getAbsolutePath());
+
+            TreeMap<String, File> resourceFiles = new TreeMap<>();
+            File[] typeDirectories = resDirectory.listFiles();
+            if (typeDirectories != null) {
+                for (File typeDirectory : typeDirectories) {
+                    File[] files = typeDirectory.listFiles();
+                    if (!typeDirectory.isDirectory() || files == null) continue;
+
+                    for (File file : files) {
+                        if (file.isFile() && !isIgnoredResourceFile(file.getName())) {
+                            resourceFiles.put(typeDirectory.getName() + "/" + file.getName(), file);
+                        }
+                    }
+                }
+            }
+
+            HashSet<String> expectedFlats = new HashSet<>();
+            HashMap<String, String> changedHashes = new HashMap<>();
+            ArrayList<String> changedFiles = new ArrayList<>();
+            long resourceBytes = 0;
+            for (Map.Entry<String, File> resourceFile : resourceFiles.entrySet()) {
+                File file = resourceFile.getValue();
+                resourceBytes += file.length();
+                String flatName = getFlatName(file);
+                expectedFlats.add(flatName);
+
+                String hash;
+                try {
+                    hash = ContentHasher.hashFile(file);
+                } catch (IOException e) {
+                    throw new zy("Couldn't read resource " + file.getAbsolutePath() + ": " + e.getMessage());
+                }
+                if (!hashes.matches(resourceFile.getKey(), hash) || !new File(flatsDirectory, flatName).isFile()) {
+                    changedHashes.put(resourceFile.getKey(), hash);
+                    changedFiles.add(file.getAbsolutePath());
+                }
+            }
+
+            for (String key : hashes.keys()) {
+                if (!resourceFiles.containsKey(key)) hashes.remove(key);
+            }
+            for (File flat : listFlats(flatsDirectory)) {
+                if (!expectedFlats.contains(flat.getName())) FileUtil.deleteFile(flat.getAbsolutePath());
+            }
+
+            LogUtil.d(TAG + ":cRI", "Compiling " + changedFiles.size() + " of " + resourceFiles.size()
+                    + " resource files of " + resDirectory.getAbsolutePath());
+            span.bytesIn(resourceBytes)
+                    .arg("compiledFiles", changedFiles.size())
+                    .arg("reusedFiles", resourceFiles.size() - changedFiles.size());
+            if (!changedFiles.isEmpty()) {
+                ArrayList<String> commands = new ArrayList<>();
+                commands.add(aapt2.getAbsolutePath());
+                commands.add("compile");
+                commands.add("-o");
+                commands.add(flatsDirectory.getAbsolutePath());
+                commands.addAll(changedFiles);
+
+                String log = runAapt2(commands);
+                if (!log.isEmpty()) {
+                    LogUtil.e(TAG + ":cRI", log);
+                    hashes.save();
+                    throw new zy(log);
+                }
+            }
+
+            for (Map.Entry<String, String> changedHash : changedHashes.entrySet()) {
+                hashes.put(changedHash.getKey(), changedHash.getValue());
+            }
+            hashes.save();
+        }
+
+        /**
+         * Runs AAPT2 through {@link Aapt2Daemon} if possible, and as separate process otherwise.
+         *
+         * @param commands The path to AAPT2 followed by its arguments
+         * @return AAPT2's error output, empty if it succeeded
+         */
+        private String runAapt2(ArrayList<String> commands) {
+            Aapt2Daemon daemon = Aapt2Daemon.get(aapt2);
+            if (daemon != null) {
+                try {
+                    return daemon.execute(commands.subList(1, commands.size()));
+                } catch (IOException e) {
+                    LogUtil.e(TAG + ":rA", "AAPT2 daemon failed, running AAPT2 as separate process", e);
+                }
+            }
 
-            ArrayList<String> commands = new ArrayList<>();
-            commands.add(aapt2.getAbsolutePath());
-            commands.add("compile");
-            commands.add("--dir");
-            commands.add(buildHelper.yq.resDirectoryPath);
-            commands.add("-o");
-            commands.add(outputPath + File.separator + "project.zip");
-            LogUtil.d(TAG + ":cPR", "Now executing: " + commands);
             BinaryExecutor executor = new BinaryExecutor();
             executor.setCommands(commands);
-            if (!executor.execute().isEmpty()) {
-                LogUtil.e(TAG, executor.getLog());
-                throw new zy(executor.getLog());
+            return executor.execute();
+        }
+
+        private File getFlatsDirectory(String name) {
+            return new File(buildHelper.yq.binDirectoryPath, "res_flats" + File.separator + name);
+        }
+
+        /**
+         * @return A directory's <code>.flat</code> files, in a stable order
+         */
+        private List<File> listFlats(File flatsDirectory) {
+            ArrayList<File> flats = new ArrayList<>();
+            File[] files = flatsDirectory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (file.isFile() && file.getName().endsWith(".flat")) flats.add(file);
+                }
             }
+            Collections.sort(flats);
+            return flats;
         }
 
-        private void emptyOrCreateDirectory(String path) {
-            if (FileUtil.isExistFile(path)) {
-                FileUtil.deleteFile(path);
+        /**
+         * @return The name of the <code>.flat</code> AAPT2 compiles a resource file to, e.g.
+         * <code>drawable-xhdpi_icon.png.flat</code> or <code>values_strings.arsc.flat</code>
+         */
+        private static String getFlatName(File resourceFile) {
+            String typeDirectory = resourceFile.getParentFile().getName();
+            String fileName = resourceFile.getName();
+            if (typeDirectory.equals("values") || typeDirectory.startsWith("values-")) {
+                int firstDot = fileName.indexOf('.');
+                return typeDirectory + "_" + (firstDot == -1 ? fileName : fileName.substring(0, firstDot)) + ".arsc.flat";
             }
-            FileUtil.makeDir(path);
+            return typeDirectory + "_" + fileName + ".flat";
         }
 
-        private void compileLocalLibraryResources(String outputPath) throws zy, MissingFileException {
-            int localLibrariesCount = buildHelper.mll.getResLocalLibrary().size();
+        /**
+         * @return If AAPT2 would skip the file when compiling a whole directory with <code>--dir</code>
+         */
+        private static boolean isIgnoredResourceFile(String fileName) {
+            return fileName.startsWith(".") || fileName.endsWith("~") || fileName.equalsIgnoreCase("thumbs.db")
+                    || fileName.equalsIgnoreCase("picasa.ini");
+        }
+
+        /**
+         * Compiles local libraries' resources to <code>compiled-res-&lt;hash&gt;.zip</code> in each library's
+         * directory, where they're reused by later builds of any project as long as the library's res/
+         * directory doesn't change. Libraries that need compiling are compiled in parallel.
+         */
+        private void compileLocalLibraryResources(BuildTrace.Span span) throws zy, MissingFileException {
+            ArrayList<String> localLibraryResDirectories = buildHelper.mll.getResLocalLibrary();
+            int localLibrariesCount = localLibraryResDirectories.size();
             LogUtil.d(TAG + ":cLLR", "About to compile " + localLibrariesCount
                     + " local " + (localLibrariesCount == 1 ? "library" : "libraries"));
-            for (String localLibraryResDirectory : buildHelper.mll.getResLocalLibrary()) {
+
+            compiledLocalLibraryResources.clear();
+            ArrayList<ArrayList<String>> pendingCompilations = new ArrayList<>();
+            ArrayList<File[]> pendingArchives = new ArrayList<>();
+            int reusedLibraries = 0;
+            for (String localLibraryResDirectory : localLibraryResDirectories) {
                 File localLibraryDirectory = new File(localLibraryResDirectory).getParentFile();
                 if (localLibraryDirectory != null) {
                     compilingAssertDirectoryExists(localLibraryResDirectory);
 
+                    String hash = new ContentHasher()
+                            .putFileMetadata(aapt2)
+                            .putDirectoryMetadata(new File(localLibraryResDirectory))
+                            .hash();
+                    File compiledResources = new File(localLibraryDirectory, LOCAL_LIBRARY_COMPILED_RESOURCES_PREFIX + hash + ".zip");
+                    compiledLocalLibraryResources.add(compiledResources);
+                    if (compiledResources.isFile()) {
+                        LogUtil.d(TAG + ":cLLR", "Reusing compiled resources of local library " + localLibraryDirectory.getName());
+                        reusedLibraries++;
+                        continue;
+                    }
+
+                    File temporaryArchive = new File(localLibraryDirectory, LOCAL_LIBRARY_COMPILED_RESOURCES_PREFIX + "tmp-" + hash + ".zip");
                     ArrayList<String> commands = new ArrayList<>();
                     commands.add(aapt2.getAbsolutePath());
                     commands.add("compile");
                     commands.add("--dir");
                     commands.add(localLibraryResDirectory);
                     commands.add("-o");
-                    commands.add(outputPath + File.separator + localLibraryDirectory.getName() + ".zip");
-
-                    LogUtil.d(TAG + ":cLLR", "Now executing: " + commands);
-                    BinaryExecutor executor = new BinaryExecutor();
-                    executor.setCommands(commands);
-                    if (!executor.execute().isEmpty()) {
-                        LogUtil.e(TAG, executor.getLog());
-                        throw new zy(executor.getLog());
+                    commands.add(temporaryArchive.getAbsolutePath());
+                    pendingCompilations.add(commands);
+                    pendingArchives.add(new File[]{temporaryArchive, compiledResources});
+                }
+            }
+            span.arg("compiledLibraries", pendingCompilations.size()).arg("reusedLibraries", reusedLibraries);
+            if (pendingCompilations.isEmpty()) return;
+
+            List<String> logs;
+            if (pendingCompilations.size() == 1) {
+                LogUtil.d(TAG + ":cLLR", "Now executing: " + pendingCompilations.get(0));
+                logs = List.of(runAapt2(pendingCompilations.get(0)));
+            } else {
+                logs = compileInParallel(pendingCompilations);
+            }
+
+            for (int i = 0; i < logs.size(); i++) {
+                File temporaryArchive = pendingArchives.get(i)[0];
+                File compiledResources = pendingArchives.get(i)[1];
+                String log = logs.get(i);
+                if (!log.isEmpty()) {
+                    LogUtil.e(TAG + ":cLLR", log);
+                    FileUtil.deleteFile(temporaryArchive.getAbsolutePath());
+                    throw new zy(log);
+                }
+
+                /* Only one version of a library's compiled resources is needed */
+                File[] oldArchives = compiledResources.getParentFile().listFiles((dir, name) ->
+                        name.startsWith(LOCAL_LIBRARY_COMPILED_RESOURCES_PREFIX));
+                if (oldArchives != null) {
+                    for (File oldArchive : oldArchives) {
+                        if (!oldArchive.equals(temporaryArchive)) FileUtil.deleteFile(oldArchive.getAbsolutePath());
                     }
                 }
+                if (!temporaryArchive.renameTo(compiledResources)) {
+                    throw new zy("Couldn't move compiled resources to " + compiledResources.getAbsolutePath());
+                }
+            }
+        }
+
+        /**
+         * Runs AAPT2 commands as separate processes on a pool bounded by the number of CPU cores.
+         *
+         * @return Each command's error output, in the same order as <code>commands</code>
+         */
+        private List<String> compileInParallel(List<ArrayList<String>> commands) throws zy {
+            ExecutorService executor = Executors.newFixedThreadPool(
+                    Math.min(commands.size(), Runtime.getRuntime().availableProcessors()));
+            try {
+                ArrayList<Future<String>> results = new ArrayList<>();
+                for (ArrayList<String> command : commands) {
+                    results.add(executor.submit(() -> {
+                        LogUtil.d(TAG + ":cIP", "Now executing: " + command);
+                        BinaryExecutor binaryExecutor = new BinaryExecutor();
+                        binaryExecutor.setCommands(command);
+                        return binaryExecutor.execute();
+                    }));
+                }
+
+                ArrayList<String> logs = new ArrayList<>();
+                for (Future<String> result : results) {
+                    logs.add(result.get());
+                }
+                return logs;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new zy("Interrupted while compiling local library resources");
+            } catch (ExecutionException e) {
+                throw new zy("Failed to compile local library resources: " + e.getCause());
+            } finally {
+                executor.shutdownNow();
             }
         }
 
-        private void compileBuiltInLibraryResources() throws zy, MissingFileException {
+        private void compileBuiltInLibraryResources(BuildTrace.Span span) throws zy, MissingFileException {
             compiledBuiltInLibraryResourcesDirectory.mkdirs();
+            HashManifest index = new HashManifest(new File(compiledBuiltInLibraryResourcesDirectory, "index.json"));
+            String appLastUpdateTime = getAppLastUpdateTime();
+            int compiledLibraries = 0;
+            int reusedLibraries = 0;
+
             for (Jp builtInLibrary : buildHelper.builtInLibraryManager.getLibraries()) {
                 if (builtInLibrary.hasResources()) {
-                    File cachedCompiledResources = new File(compiledBuiltInLibraryResourcesDirectory, builtInLibrary.getName() + ".zip");
-                    String libraryResources = BuiltInLibraries.getLibraryResourcesPath(builtInLibrary.getName());
+                    String libraryName = builtInLibrary.getName();
+                    File cachedCompiledResources = new File(compiledBuiltInLibraryResourcesDirectory, libraryName + ".zip");
+                    String libraryResources = BuiltInLibraries.getLibraryResourcesPath(libraryName);
 
                     compilingAssertDirectoryExists(libraryResources);
 
-                    if (isBuiltInLibraryRecompilingNeeded(cachedCompiledResources)) {
+                    /* Extracted libraries only change with app updates, so hash them only once per update */
+                    String verifiedKey = libraryName + ":verifiedAt";
+                    if (cachedCompiledResources.exists() && index.get(libraryName) != null
+                            && appLastUpdateTime != null && appLastUpdateTime.equals(index.get(verifiedKey))) {
+                        LogUtil.d(TAG + ":cBILR", "Skipped resource recompilation for built-in library " + libraryName);
+                        reusedLibraries++;
+                        continue;
+                    }
+
+                    String hash = getBuiltInLibraryResourcesHash(libraryResources);
+                    if (cachedCompiledResources.exists() && index.matches(libraryName, hash)) {
+                        LogUtil.d(TAG + ":cBILR", "Resources of built-in library " + libraryName
+                                + " didn't change, skipped recompilation");
+                        reusedLibraries++;
+                    } else {
                         ArrayList<String> commands = new ArrayList<>();
                         commands.add(aapt2.getAbsolutePath());
                         commands.add("compile");
@@ -351,52 +600,60 @@ public class ResourceCompiler {
                         commands.add(cachedCompiledResources.getAbsolutePath());
 
                         LogUtil.d(TAG + ":cBILR", "Now executing: " + commands);
-                        BinaryExecutor executor = new BinaryExecutor();
-                        executor.setCommands(commands);
-                        if (!executor.execute().isEmpty()) {
-                            LogUtil.e(TAG + ":cBILR", executor.getLog());
-                            throw new zy(executor.getLog());
+                        index.remove(libraryName);
+                        String log = runAapt2(commands);
+                        if (!log.isEmpty()) {
+                            LogUtil.e(TAG + ":cBILR", log);
+                            index.save();
+                            throw new zy(log);
                         }
-                    } else {
-                        LogUtil.d(TAG + ":cBILR", "Skipped resource recompilation for built-in library " + builtInLibrary.getName());
+                        index.put(libraryName, hash);
+                        compiledLibraries++;
                     }
+                    if (appLastUpdateTime != null) index.put(verifiedKey, appLastUpdateTime);
+                    index.save();
                 }
             }
+            span.arg("compiledLibraries", compiledLibraries).arg("reusedLibraries", reusedLibraries);
         }
 
-        private boolean isBuiltInLibraryRecompilingNeeded(File cachedCompiledResources) {
-            if (cachedCompiledResources.exists()) {
-                try {
-                    Context context = SketchApplication.getContext();
-                    return context.getPackageManager().getPackageInfo(context.getPackageName(), 0)
-                            .lastUpdateTime > cachedCompiledResources.lastModified();
-                } catch (PackageManager.NameNotFoundException e) {
-                    LogUtil.e(TAG + ":iBILRN", "Couldn't get package info about ourselves: " + e.getMessage(), e);
+        /**
+         * @return A hash of a built-in library's resources and the AAPT2 binary compiling them
+         */
+        private String getBuiltInLibraryResourcesHash(String libraryResources) throws zy {
+            try {
+                if (aapt2Hash == null) {
+                    aapt2Hash = ContentHasher.hashFile(aapt2);
                 }
-            } else {
-                LogUtil.d(TAG + ":iBILRN", "File " + cachedCompiledResources.getAbsolutePath()
-                        + " doesn't exist, forcing compilation");
+                return new ContentHasher()
+                        .putString(aapt2Hash)
+                        .putDirectory(new File(libraryResources))
+                        .hash();
+            } catch (IOException e) {
+                throw new zy("Couldn't read resources of " + libraryResources + ": " + e.getMessage());
             }
-            return true;
         }
 
-        private void compileImportedResources(String outputPath) throws zy {
-            if (FileUtil.isExistFile(buildHelper.fpu.getPathResource(buildHelper.yq.sc_id))
-                    && new File(buildHelper.fpu.getPathResource(buildHelper.yq.sc_id)).length() != 0) {
-                ArrayList<String> commands = new ArrayList<>();
-                commands.add(aapt2.getAbsolutePath());
-                commands.add("compile");
-                commands.add("--dir");
-                commands.add(buildHelper.fpu.getPathResource(buildHelper.yq.sc_id));
-                commands.add("-o");
-                commands.add(outputPath + File.separator + "project-imported.zip");
-                LogUtil.d(TAG + ":cIR", "Now executing: " + commands);
-                BinaryExecutor executor = new BinaryExecutor();
-                executor.setCommands(commands);
-                if (!executor.execute().isEmpty()) {
-                    LogUtil.e(TAG, executor.getLog());
-                    throw new zy(executor.getLog());
-                }
+        /**
+         * @return When Sketchware Pro was last updated, or <code>null</code> if unknown
+         */
+        private String getAppLastUpdateTime() {
+            try {
+                Context context = SketchApplication.getContext();
+                return String.valueOf(context.getPackageManager().getPackageInfo(context.getPackageName(), 0)
+                        .lastUpdateTime);
+            } catch (PackageManager.NameNotFoundException e) {
+                LogUtil.e(TAG + ":gALUT", "Couldn't get package info about ourselves: " + e.getMessage(), e);
+                return null;
+            }
+        }
+
+        private void compileImportedResources(BuildTrace.Span span) throws zy {
+            String importedResourcesPath = buildHelper.fpu.getPathResource(buildHelper.yq.sc_id);
+            if (FileUtil.isExistFile(importedResourcesPath) && new File(importedResourcesPath).length() != 0) {
+                compileResourcesIncrementally(new File(importedResourcesPath), FLATS_IMPORTED, span);
+            } else {
+                FileUtil.deleteFile(getFlatsDirectory(FLATS_IMPORTED).getAbsolutePath());
             }
         }
 
@@ -0,0 +1,200 @@
+package mod.jbk.build.incremental;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * What incremental compilation needs to know about a compiled class: its name, the source file
+ * it was compiled from, the classes it references and its compile-time constants.
+ * Read from the class file's constant pool, fields and attributes, without loading the class.
+ */
+public class ClassFileInfo {
+
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final Pattern TYPE_DESCRIPTOR = Pattern.compile("L([^;<>()\\[\\]\\s]+)[;<]");
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+    private static final int CONSTANT_METHOD_TYPE = 16;
+    private static final int CONSTANT_DYNAMIC = 17;
+    private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+    private static final int CONSTANT_MODULE = 19;
+    private static final int CONSTANT_PACKAGE = 20;
+
+    /**
+     * Internal name, e.g. <code>com/my/newproject/MainActivity$1</code>
+     */
+    public final String name;
+    /**
+     * Name of the source file without directories, e.g. <code>MainActivity.java</code>,
+     * or <code>null</code> if the class was compiled without that debug information
+     */
+    public final String sourceFile;
+    /**
+     * Internal names of all classes referenced by this class, including itself
+     */
+    public final Set<String> dependencies;
+    /**
+     * Internal names of the superclass, if any, and the directly implemented interfaces
+     */
+    public final List<String> supertypes;
+    /**
+     * Hash of this class's fields with constant values, which other classes inline when compiled
+     */
+    public final String constantsHash;
+
+    private ClassFileInfo(String name, String sourceFile, Set<String> dependencies, List<String> supertypes, String constantsHash) {
+        this.name = name;
+        this.sourceFile = sourceFile;
+        this.dependencies = dependencies;
+        this.supertypes = supertypes;
+        this.constantsHash = constantsHash;
+    }
+
+    public static ClassFileInfo read(File classFile) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(classFile)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(classFile.getAbsolutePath() + " isn't a class file");
+            }
+            in.readUnsignedShort(); // minor_version
+            in.readUnsignedShort(); // major_version
+
+            int constantPoolCount = in.readUnsignedShort();
+            String[] utf8s = new String[constantPoolCount];
+            int[] classNameIndexes = new int[constantPoolCount];
+            String[] constantValues = new String[constantPoolCount];
+            for (int i = 1; i < constantPoolCount; i++) {
+                int tag = in.readUnsignedByte();
+                switch (tag) {
+                    case CONSTANT_UTF8 -> utf8s[i] = in.readUTF();
+                    case CONSTANT_INTEGER -> constantValues[i] = "I" + in.readInt();
+                    case CONSTANT_FLOAT -> constantValues[i] = "F" + in.readInt();
+                    case CONSTANT_LONG -> {
+                        constantValues[i] = "J" + in.readLong();
+                        i++;
+                    }
+                    case CONSTANT_DOUBLE -> {
+                        constantValues[i] = "D" + in.readLong();
+                        i++;
+                    }
+                    case CONSTANT_CLASS -> classNameIndexes[i] = in.readUnsignedShort();
+                    case CONSTANT_STRING -> constantValues[i] = "S" + in.readUnsignedShort();
+                    case CONSTANT_METHOD_TYPE, CONSTANT_MODULE, CONSTANT_PACKAGE -> in.readUnsignedShort();
+                    case CONSTANT_FIELDREF, CONSTANT_METHODREF, CONSTANT_INTERFACE_METHODREF,
+                         CONSTANT_NAME_AND_TYPE, CONSTANT_DYNAMIC, CONSTANT_INVOKE_DYNAMIC -> in.readInt();
+                    case CONSTANT_METHOD_HANDLE -> {
+                        in.readUnsignedByte();
+                        in.readUnsignedShort();
+                    }
+                    default -> throw new IOException("Unknown constant pool tag " + tag + " in " + classFile.getAbsolutePath());
+                }
+            }
+
+            in.readUnsignedShort(); // access_flags
+            String name = utf8s[classNameIndexes[in.readUnsignedShort()]];
+            List<String> supertypes = new ArrayList<>();
+            int superClassIndex = in.readUnsignedShort();
+            if (superClassIndex != 0) {
+                supertypes.add(utf8s[classNameIndexes[superClassIndex]]);
+            }
+            int interfacesCount = in.readUnsignedShort();
+            for (int i = 0; i < interfacesCount; i++) {
+                supertypes.add(utf8s[classNameIndexes[in.readUnsignedShort()]]);
+            }
+
+            ArrayList<String> constants = new ArrayList<>();
+            int fieldsCount = in.readUnsignedShort();
+            for (int i = 0; i < fieldsCount; i++) {
+                in.readUnsignedShort(); // access_flags
+                String fieldName = utf8s[in.readUnsignedShort()];
+                String descriptor = utf8s[in.readUnsignedShort()];
+                int attributesCount = in.readUnsignedShort();
+                for (int j = 0; j < attributesCount; j++) {
+                    String attributeName = utf8s[in.readUnsignedShort()];
+                    int length = in.readInt();
+                    if ("ConstantValue".equals(attributeName) && length == 2) {
+                        String value = constantValues[in.readUnsignedShort()];
+                        if (value != null && value.startsWith("S")) {
+                            value = "S" + utf8s[Integer.parseInt(value.substring(1))];
+                        }
+                        constants.add(fieldName + ":" + descriptor + "=" + value);
+                    } else {
+                        in.skipBytes(length);
+                    }
+                }
+            }
+
+            int methodsCount = in.readUnsignedShort();
+            for (int i = 0; i < methodsCount; i++) {
+                in.skipBytes(6); // access_flags, name_index, descriptor_index
+                int attributesCount = in.readUnsignedShort();
+                for (int j = 0; j < attributesCount; j++) {
+                    in.readUnsignedShort();
+                    in.skipBytes(in.readInt());
+                }
+            }
+
+            String sourceFile = null;
+            int attributesCount = in.readUnsignedShort();
+            for (int i = 0; i < attributesCount; i++) {
+                String attributeName = utf8s[in.readUnsignedShort()];
+                int length = in.readInt();
+                if ("SourceFile".equals(attributeName) && length == 2) {
+                    sourceFile = utf8s[in.readUnsignedShort()];
+                } else {
+                    in.skipBytes(length);
+                }
+            }
+
+            Set<String> dependencies = new HashSet<>();
+            for (int i = 1; i < constantPoolCount; i++) {
+                if (classNameIndexes[i] != 0) {
+                    String className = utf8s[classNameIndexes[i]];
+                    if (className.startsWith("[")) {
+                        addTypeDescriptors(className, dependencies);
+                    } else {
+                        dependencies.add(className);
+                    }
+                } else if (utf8s[i] != null && utf8s[i].indexOf(';') != -1) {
+                    /* Field/method descriptors and generic signatures */
+                    addTypeDescriptors(utf8s[i], dependencies);
+                }
+            }
+
+            Collections.sort(constants);
+            ContentHasher constantsHasher = new ContentHasher();
+            for (String constant : constants) {
+                constantsHasher.putString(constant);
+            }
+            return new ClassFileInfo(name, sourceFile, dependencies, supertypes,
+                    constants.isEmpty() ? "" : constantsHasher.hash());
+        }
+    }
+
+    private static void addTypeDescriptors(String value, Set<String> dependencies) {
+        Matcher matcher = TYPE_DESCRIPTOR.matcher(value);
+        while (matcher.find()) {
+            dependencies.add(matcher.group(1));
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package mod.jbk.build.incremental;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Accumulates an MD5 hash over build inputs, such as files, directory trees and settings.
+ * Used to find out if a build step's inputs changed since the last build.
+ */
+public class ContentHasher {
+
+    private final MessageDigest digest;
+    private final byte[] buffer = new byte[8192];
+
+    public ContentHasher() {
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 isn't available", e);
+        }
+    }
+
+    /**
+     * @return The hex-encoded MD5 hash of a file's content
+     */
+    public static String hashFile(File file) throws IOException {
+        return new ContentHasher().putFile(file).hash();
+    }
+
+    /**
+     * @return The hex-encoded MD5 hash of a String's UTF-8 representation
+     */
+    public static String hashString(String content) {
+        return new ContentHasher().putString(content).hash();
+    }
+
+    public ContentHasher putString(String value) {
+        digest.update(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+        // Separator, so that "ab" + "c" and "a" + "bc" don't result in the same hash
+        digest.update((byte) 0);
+        return this;
+    }
+
+    /**
+     * Adds a file's content. Missing files are hashed as such, and don't throw.
+     */
+    public ContentHasher putFile(File file) throws IOException {
+        if (!file.isFile()) {
+            return putString("<missing>");
+        }
+
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        digest.update((byte) 0);
+        return this;
+    }
+
+    /**
+     * Adds a file's path, size and last modification time, but not its content.
+     * Useful for large inputs that never change in place, like library JARs.
+     */
+    public ContentHasher putFileMetadata(File file) {
+        putString(file.getAbsolutePath());
+        if (file.isDirectory()) {
+            return putString("<directory>");
+        }
+        return putString(file.length() + ":" + file.lastModified());
+    }
+
+    /**
+     * Adds the relative paths and content of all files in a directory, recursively, in a stable order.
+     */
+    public ContentHasher putDirectory(File directory) throws IOException {
+        if (!directory.isDirectory()) {
+            return putString("<missing>");
+        }
+        putDirectory(directory, "", false);
+        return this;
+    }
+
+    /**
+     * Adds the relative paths, sizes and last modification times of all files in a directory,
+     * recursively, in a stable order. Like {@link #putFileMetadata(File)}, for directories that
+     * don't change in place.
+     */
+    public ContentHasher putDirectoryMetadata(File directory) {
+        if (!directory.isDirectory()) {
+            return putString("<missing>");
+        }
+        try {
+            putDirectory(directory, "", true);
+        } catch (IOException e) {
+            // Not thrown if file contents aren't read
+            throw new IllegalStateException(e);
+        }
+        return this;
+    }
+
+    private void putDirectory(File directory, String relativePath, boolean metadataOnly) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) return;
+        Arrays.sort(files, (first, second) -> first.getName().compareTo(second.getName()));
+
+        for (File file : files) {
+            String path = relativePath + "/" + file.getName();
+            if (file.isDirectory()) {
+                putDirectory(file, path, metadataOnly);
+            } else {
+                putString(path);
+                if (metadataOnly) {
+                    putString(file.length() + ":" + file.lastModified());
+                } else {
+                    putFile(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The hex-encoded hash of everything added so far. Resets this hasher.
+     */
+    public String hash() {
+        byte[] hash = digest.digest();
+        StringBuilder hex = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,70 @@
+package mod.jbk.build.incremental;
+
+import android.util.Log;
+
+import com.google.gson.Gson;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+import mod.hey.studios.util.Helper;
+import pro.sketchware.utility.FileUtil;
+
+/**
+ * A small persisted key-to-hash map, e.g. from build steps or file paths to their
+ * {@link ContentHasher} hashes of the last successful build. Thread-safe.
+ */
+public class HashManifest {
+
+    private static final String TAG = "HashManifest";
+
+    private final File file;
+    private final HashMap<String, String> hashes;
+
+    public HashManifest(File file) {
+        this.file = file;
+
+        HashMap<String, String> loaded = null;
+        if (file.isFile()) {
+            try {
+                loaded = new Gson().fromJson(FileUtil.readFile(file.getAbsolutePath()), Helper.TYPE_STRING_MAP);
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to read hash manifest " + file.getAbsolutePath() + ", starting over", e);
+            }
+        }
+        hashes = loaded != null ? loaded : new HashMap<>();
+    }
+
+    public synchronized String get(String key) {
+        return hashes.get(key);
+    }
+
+    /**
+     * @return If {@code key}'s recorded hash is {@code hash}
+     */
+    public synchronized boolean matches(String key, String hash) {
+        return hash != null && hash.equals(hashes.get(key));
+    }
+
+    public synchronized void put(String key, String hash) {
+        hashes.put(key, hash);
+    }
+
+    public synchronized void remove(String key) {
+        hashes.remove(key);
+    }
+
+    public synchronized Set<String> keys() {
+        return new HashSet<>(hashes.keySet());
+    }
+
+    public synchronized void clear() {
+        hashes.clear();
+    }
+
+    public synchronized void save() {
+        FileUtil.writeFile(file.getAbsolutePath(), new Gson().toJson(hashes));
+    }
+}
@@ -0,0 +1,335 @@
+package mod.jbk.build.incremental;
+
+import com.google.gson.Gson;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import mod.jbk.util.LogUtil;
+import pro.sketchware.utility.FileUtil;
+
+/**
+ * Keeps track of which Java source file compiled to which class files, and which classes depend
+ * on which, so that only changed source files and the ones depending on them need to be recompiled.
+ * <p>
+ * Usage: {@link #plan(List)} finds out what to compile and deletes outdated class files, the caller
+ * compiles {@link Plan#getSourcesToCompile()} with the classes directory on the classpath, and
+ * {@link #finish(Plan)} records the result. Constants get inlined by the compiler without leaving a
+ * reference in class files, so if a class's constants changed, everything needs to be recompiled.
+ */
+public class IncrementalJavaCompilation {
+
+    private static final String TAG = "IncrementalJavaCompilation";
+    private static final Pattern PACKAGE_DECLARATION = Pattern.compile("^\\s*package\\s+([\\w.]+)\\s*;", Pattern.MULTILINE);
+
+    private final File classesDirectory;
+    private final File stateFile;
+    private final String optionsHash;
+
+    /**
+     * @param classesDirectory The directory class files get compiled to
+     * @param stateFile        Where to persist the dependency graph between builds
+     * @param optionsHash      Hash of everything besides sources that affects compilation output, like the classpath
+     */
+    public IncrementalJavaCompilation(File classesDirectory, File stateFile, String optionsHash) {
+        this.classesDirectory = classesDirectory;
+        this.stateFile = stateFile;
+        this.optionsHash = optionsHash;
+    }
+
+    /**
+     * Compares sources against the last compilation and deletes class files that are outdated. If a full
+     * compilation is needed, the classes directory gets emptied.
+     *
+     * @param sourceRoots Directories with Java source files, may contain non-existent ones
+     */
+    public Plan plan(List<String> sourceRoots) throws IOException {
+        HashMap<String, Source> sources = new HashMap<>();
+        for (String sourceRoot : sourceRoots) {
+            for (String path : FileUtil.listFilesRecursively(new File(sourceRoot), ".java").stream().map(File::getAbsolutePath).toList()) {
+                sources.put(path, Source.read(new File(path)));
+            }
+        }
+
+        State state = loadState();
+        if (state == null || !optionsHash.equals(state.options) || !classesDirectory.isDirectory()) {
+            return fullCompilation(sources);
+        }
+
+        HashSet<String> dirtySources = new HashSet<>();
+        HashSet<String> affectedClasses = new HashSet<>();
+        for (Map.Entry<String, Source> source : sources.entrySet()) {
+            SourceState sourceState = state.sources.get(source.getKey());
+            if (sourceState == null) {
+                dirtySources.add(source.getKey());
+            } else if (!sourceState.hash.equals(source.getValue().hash)) {
+                dirtySources.add(source.getKey());
+                affectedClasses.addAll(sourceState.classes);
+            }
+        }
+        for (Map.Entry<String, SourceState> sourceState : state.sources.entrySet()) {
+            if (!sources.containsKey(sourceState.getKey())) {
+                for (String removedClass : sourceState.getValue().classes) {
+                    ClassState classState = state.classes.get(removedClass);
+                    /* Other classes might have inlined its constants */
+                    if (classState == null || !classState.constants.isEmpty()) {
+                        return fullCompilation(sources);
+                    }
+                }
+                affectedClasses.addAll(sourceState.getValue().classes);
+            }
+        }
+        if (dirtySources.isEmpty() && affectedClasses.isEmpty()) {
+            return new Plan(false, new ArrayList<>(), sources);
+        }
+
+        /* Sources of classes that (transitively) depend on changed classes need recompiling too */
+        HashMap<String, String> classToSource = new HashMap<>();
+        HashMap<String, ArrayList<String>> dependents = new HashMap<>();
+        for (Map.Entry<String, SourceState> sourceState : state.sources.entrySet()) {
+            for (String className : sourceState.getValue().classes) {
+                classToSource.put(className, sourceState.getKey());
+                ClassState classState = state.classes.get(className);
+                if (classState == null) return fullCompilation(sources);
+                for (String dependency : classState.dependencies) {
+                    dependents.computeIfAbsent(dependency, key -> new ArrayList<>()).add(className);
+                }
+            }
+        }
+        ArrayDeque<String> queue = new ArrayDeque<>(affectedClasses);
+        while (!queue.isEmpty()) {
+            List<String> dependentClasses = dependents.get(queue.poll());
+            if (dependentClasses == null) continue;
+
+            for (String dependentClass : dependentClasses) {
+                String source = classToSource.get(dependentClass);
+                if (sources.containsKey(source) && dirtySources.add(source)) {
+                    for (String className : state.sources.get(source).classes) {
+                        if (affectedClasses.add(className)) queue.add(className);
+                    }
+                }
+            }
+        }
+
+        /* Everything that doesn't belong to a source that's up-to-date gets compiled again */
+        HashSet<String> upToDateClasses = new HashSet<>();
+        for (Map.Entry<String, SourceState> sourceState : state.sources.entrySet()) {
+            if (sources.containsKey(sourceState.getKey()) && !dirtySources.contains(sourceState.getKey())) {
+                upToDateClasses.addAll(sourceState.getValue().classes);
+            }
+        }
+        HashSet<String> existingClasses = new HashSet<>();
+        for (File classFile : FileUtil.listFilesRecursively(classesDirectory, ".class")) {
+            String className = getClassName(classFile);
+            if (upToDateClasses.contains(className)) {
+                existingClasses.add(className);
+            } else if (!classFile.delete()) {
+                throw new IOException("Couldn't delete outdated class file " + classFile.getAbsolutePath());
+            }
+        }
+        if (!existingClasses.containsAll(upToDateClasses)) {
+            return fullCompilation(sources);
+        }
+
+        LogUtil.d(TAG, "Recompiling " + dirtySources.size() + " of " + sources.size() + " Java source files");
+        return new Plan(false, new ArrayList<>(dirtySources), sources);
+    }
+
+    /**
+     * Records a successful compilation of {@link Plan#getSourcesToCompile()}.
+     *
+     * @return <code>false</code> if a class's constants changed, in which case the classes directory has
+     * been emptied and everything has to be compiled again, followed by another call to this method
+     * with {@link #fullCompilationPlan(Plan)}
+     */
+    public boolean finish(Plan plan) throws IOException {
+        State previousState = plan.isFullCompilation() ? null : loadState();
+        State state = new State();
+        state.options = optionsHash;
+
+        HashSet<String> compiledSources = new HashSet<>(plan.getSourcesToCompile());
+        HashMap<String, String> sourceByLocation = new HashMap<>();
+        for (Map.Entry<String, Source> source : plan.sources.entrySet()) {
+            state.sources.put(source.getKey(), new SourceState(source.getValue().hash));
+            if (compiledSources.contains(source.getKey())) {
+                sourceByLocation.put(source.getValue().location, source.getKey());
+            } else if (previousState != null) {
+                SourceState previousSourceState = previousState.sources.get(source.getKey());
+                state.sources.get(source.getKey()).classes.addAll(previousSourceState.classes);
+                for (String className : previousSourceState.classes) {
+                    state.classes.put(className, previousState.classes.get(className));
+                }
+            }
+        }
+
+        HashMap<String, ClassFileInfo> compiledClasses = new HashMap<>();
+        for (File classFile : FileUtil.listFilesRecursively(classesDirectory, ".class")) {
+            String className = getClassName(classFile);
+            if (!state.classes.containsKey(className)) {
+                ClassFileInfo info = ClassFileInfo.read(classFile);
+                String packagePath = className.contains("/") ? className.substring(0, className.lastIndexOf('/') + 1) : "";
+                String source = info.sourceFile == null ? null : sourceByLocation.get(packagePath + info.sourceFile);
+                if (source == null) {
+                    LogUtil.w(TAG, "Don't know which source file " + className + " was compiled from, recompiling everything");
+                    return startOver();
+                }
+                state.sources.get(source).classes.add(className);
+                compiledClasses.put(className, info);
+            }
+        }
+
+        if (previousState != null) {
+            for (String source : compiledSources) {
+                SourceState previousSourceState = previousState.sources.get(source);
+                if (previousSourceState == null) continue;
+
+                for (String className : previousSourceState.classes) {
+                    ClassState previousClassState = previousState.classes.get(className);
+                    ClassFileInfo info = compiledClasses.get(className);
+                    String constants = info == null ? "" : info.constantsHash;
+                    if (previousClassState == null || !previousClassState.constants.equals(constants)) {
+                        LogUtil.d(TAG, "Constants of " + className + " changed, recompiling everything");
+                        return startOver();
+                    }
+                }
+            }
+        }
+
+        HashSet<String> projectClasses = new HashSet<>(state.classes.keySet());
+        projectClasses.addAll(compiledClasses.keySet());
+        for (ClassFileInfo info : compiledClasses.values()) {
+            ClassState classState = new ClassState(info.constantsHash);
+            for (String dependency : info.dependencies) {
+                if (projectClasses.contains(dependency)) classState.dependencies.add(dependency);
+            }
+            state.classes.put(info.name, classState);
+        }
+
+        FileUtil.writeFile(stateFile.getAbsolutePath(), new Gson().toJson(state));
+        return true;
+    }
+
+    /**
+     * @return A plan compiling all of another plan's sources
+     */
+    public Plan fullCompilationPlan(Plan plan) {
+        return new Plan(true, new ArrayList<>(plan.sources.keySet()), plan.sources);
+    }
+
+    /**
+     * Forgets everything about previous compilations, and deletes all of their class files.
+     */
+    public void reset() {
+        FileUtil.deleteFile(stateFile.getAbsolutePath());
+        FileUtil.deleteFile(classesDirectory.getAbsolutePath());
+        FileUtil.makeDir(classesDirectory.getAbsolutePath());
+    }
+
+    private boolean startOver() {
+        reset();
+        return false;
+    }
+
+    private Plan fullCompilation(HashMap<String, Source> sources) {
+        reset();
+        LogUtil.d(TAG, "Compiling all " + sources.size() + " Java source files");
+        return new Plan(true, new ArrayList<>(sources.keySet()), sources);
+    }
+
+    private State loadState() {
+        if (!stateFile.isFile()) return null;
+        try {
+            return new Gson().fromJson(FileUtil.readFile(stateFile.getAbsolutePath()), State.class);
+        } catch (Exception e) {
+            LogUtil.e(TAG, "Couldn't read incremental compilation state, recompiling everything", e);
+            return null;
+        }
+    }
+
+    private String getClassName(File classFile) {
+        String relativePath = classesDirectory.toURI().relativize(classFile.toURI()).getPath();
+        return relativePath.substring(0, relativePath.length() - ".class".length());
+    }
+
+    public static class Plan {
+        private final boolean fullCompilation;
+        private final List<String> sourcesToCompile;
+        private final Map<String, Source> sources;
+
+        private Plan(boolean fullCompilation, List<String> sourcesToCompile, Map<String, Source> sources) {
+            this.fullCompilation = fullCompilation;
+            this.sourcesToCompile = sourcesToCompile;
+            this.sources = sources;
+        }
+
+        /**
+         * @return If all sources need to be compiled, and class files of previous compilations have been deleted
+         */
+        public boolean isFullCompilation() {
+            return fullCompilation;
+        }
+
+        /**
+         * @return Absolute paths of source files to compile, empty if everything is up-to-date
+         */
+        public List<String> getSourcesToCompile() {
+            return sourcesToCompile;
+        }
+    }
+
+    private static class Source {
+        private final String hash;
+        /**
+         * Package as path and file name, e.g. <code>com/my/newproject/MainActivity.java</code>.
+         * Compiled classes refer to their sources like that.
+         */
+        private final String location;
+
+        private Source(String hash, String location) {
+            this.hash = hash;
+            this.location = location;
+        }
+
+        private static Source read(File file) throws IOException {
+            String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+            Matcher matcher = PACKAGE_DECLARATION.matcher(content);
+            String packagePath = matcher.find() ? matcher.group(1).replace('.', '/') + "/" : "";
+            return new Source(ContentHasher.hashString(content), packagePath + file.getName());
+        }
+    }
+
+    private static class State {
+        private String options;
+        private HashMap<String, SourceState> sources = new HashMap<>();
+        private HashMap<String, ClassState> classes = new HashMap<>();
+    }
+
+    private static class SourceState {
+        private String hash;
+        private ArrayList<String> classes = new ArrayList<>();
+
+        private SourceState(String hash) {
+            this.hash = hash;
+        }
+    }
+
+    private static class ClassState {
+        private String constants;
+        private ArrayList<String> dependencies = new ArrayList<>();
+
+        private ClassState(String constants) {
+            this.constants = constants;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package mod.jbk.diagnostic;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import mod.jbk.build.BuildTrace;
+import mod.jbk.util.LogUtil;
+import pro.sketchware.utility.FilePathUtil;
+import pro.sketchware.utility.FileUtil;
+
+/**
+ * Keeps performance records of a project's successful builds, one JSON object per line, so that
+ * adding a record only appends to the file. Once it's larger than {@link #MAX_FILE_SIZE}, it's rewritten
+ * with only the latest {@link #MAX_RECORDS} records, which take up at most half of that.
+ */
+public class BuildHistory {
+
+    public static final String TOTAL = "total";
+
+    private static final String TAG = "BuildHistory";
+    private static final int MAX_RECORDS = 100;
+    /**
+     * About twice as large as {@link #MAX_RECORDS} records usually are
+     */
+    private static final long MAX_FILE_SIZE = 64 * 1024;
+    /**
+     * How many builds before a build its durations get compared to
+     */
+    private static final int BASELINE_BUILDS = 5;
+    /**
+     * A duration is a regression if it's both this much longer relatively than the baseline...
+     */
+    private static final double REGRESSION_FACTOR = 1.25;
+    /**
+     * ...and this many milliseconds longer, so that noise of short steps isn't flagged
+     */
+    private static final long REGRESSION_MIN_MILLIS = 500;
+
+    private final String path;
+
+    /**
+     * @param sc_id The Sketchware project ID for the project to operate on, like 605
+     */
+    public BuildHistory(String sc_id) {
+        path = FilePathUtil.getBuildHistoryPath(sc_id);
+    }
+
+    /**
+     * Appends a build's record to the history.
+     */
+    public void add(Record record) {
+        File file = new File(path);
+        FileUtil.makeDir(file.getParent());
+        try (FileWriter writer = new FileWriter(file, true)) {
+            writer.write(new Gson().toJson(record));
+            writer.write('\n');
+        } catch (IOException e) {
+            LogUtil.e(TAG, "Couldn't save build record to " + path, e);
+            return;
+        }
+
+        if (file.length() > MAX_FILE_SIZE) {
+            List<Record> records = getRecords();
+            List<String> keptLines = new ArrayList<>();
+            long keptSize = 0;
+            Gson gson = new Gson();
+            for (int i = records.size() - 1; i >= 0 && keptLines.size() < MAX_RECORDS; i--) {
+                String line = gson.toJson(records.get(i)) + '\n';
+                if (!keptLines.isEmpty() && keptSize + line.length() > MAX_FILE_SIZE / 2) break;
+                keptLines.add(0, line);
+                keptSize += line.length();
+            }
+            FileUtil.writeFile(path, String.join("", keptLines));
+        }
+    }
+
+    /**
+     * @return Records of all builds in the history, oldest first. Lines that can't be parsed are skipped.
+     */
+    public List<Record> getRecords() {
+        if (!FileUtil.isExistFile(path)) return Collections.emptyList();
+
+        List<Record> records = new ArrayList<>();
+        Gson gson = new Gson();
+        for (String line : FileUtil.readFile(path).split("\n")) {
+            if (line.isBlank()) continue;
+
+            try {
+                Record record = gson.fromJson(line, Record.class);
+                if (record != null && record.stepMillis != null) records.add(record);
+            } catch (JsonParseException e) {
+                LogUtil.w(TAG, "Skipping malformed build record: " + line);
+            }
+        }
+        return records;
+    }
+
+    public void delete() {
+        FileUtil.deleteFile(path);
+    }
+
+    /**
+     * Compares the durations of the last build in <code>records</code> with the median durations of
+     * the {@link #BASELINE_BUILDS} builds before it.
+     *
+     * @return A message for each step, or {@link #TOTAL}, that got noticeably slower
+     */
+    public static List<String> findRegressions(List<Record> records) {
+        List<String> regressions = new ArrayList<>();
+        if (records.size() < 2) return regressions;
+
+        Record last = records.get(records.size() - 1);
+        List<Record> baseline = records.subList(Math.max(0, records.size() - 1 - BASELINE_BUILDS), records.size() - 1);
+        for (Map.Entry<String, Long> step : last.getDurations().entrySet()) {
+            List<Long> previousMillis = new ArrayList<>();
+            for (Record record : baseline) {
+                Long millis = record.getDurations().get(step.getKey());
+                if (millis != null) previousMillis.add(millis);
+            }
+            if (previousMillis.isEmpty()) continue;
+
+            Collections.sort(previousMillis);
+            long median = previousMillis.get(previousMillis.size() / 2);
+            long millis = step.getValue();
+            if (millis > median * REGRESSION_FACTOR && millis - median >= REGRESSION_MIN_MILLIS) {
+                regressions.add(step.getKey() + " took " + millis + " ms, up from a median of " + median
+                        + " ms of the previous " + previousMillis.size() + " builds");
+            }
+        }
+        return regressions;
+    }
+
+    /**
+     * Performance numbers of one build.
+     */
+    public static class Record {
+        /**
+         * When the build finished, in milliseconds since the epoch
+         */
+        public long time;
+        public long totalMillis;
+        /**
+         * Durations of build steps by their name, in the order they began
+         */
+        public LinkedHashMap<String, Long> stepMillis;
+        /**
+         * Number of up-to-date checks, e.g. of stages or merged library DEX files, that could reuse
+         * outputs of an earlier build
+         */
+        public int cacheHits;
+        public int cacheMisses;
+        public long apkSize;
+        public int dexCount;
+
+        /**
+         * Creates a record of a build from its trace, with steps being the spans of the
+         * <code>step</code> category.
+         *
+         * @param apk The built APK
+         */
+        public static Record of(BuildTrace trace, File apk) {
+            Record record = new Record();
+            record.time = System.currentTimeMillis();
+            record.stepMillis = new LinkedHashMap<>();
+
+            List<BuildTrace.Event> events = trace.getEvents();
+            events.sort((first, second) -> Long.compare(first.ts, second.ts));
+            long firstStepStarted = Long.MAX_VALUE;
+            long lastStepEnded = 0;
+            for (BuildTrace.Event event : events) {
+                if ("step".equals(event.cat)) {
+                    record.stepMillis.put(event.name, event.dur / 1000);
+                    firstStepStarted = Math.min(firstStepStarted, event.ts);
+                    lastStepEnded = Math.max(lastStepEnded, event.ts + event.dur);
+                }
+                Object cache = event.args != null ? event.args.get(BuildTrace.ARG_CACHE) : null;
+                if ("hit".equals(cache)) {
+                    record.cacheHits++;
+                } else if ("miss".equals(cache)) {
+                    record.cacheMisses++;
+                }
+            }
+            record.totalMillis = lastStepEnded > firstStepStarted ? (lastStepEnded - firstStepStarted) / 1000 : 0;
+
+            record.apkSize = apk.length();
+            try (ZipFile zipFile = new ZipFile(apk)) {
+                Enumeration<? extends ZipEntry> entries = zipFile.entries();
+                while (entries.hasMoreElements()) {
+                    if (entries.nextElement().getName().matches("classes\\d*\\.dex")) {
+                        record.dexCount++;
+                    }
+                }
+            } catch (IOException e) {
+                LogUtil.w(TAG, "Couldn't count DEX files of " + apk.getAbsolutePath() + ": " + e.getMessage());
+            }
+            return record;
+        }
+
+        /**
+         * @return {@link #TOTAL} followed by {@link #stepMillis}
+         */
+        public Map<String, Long> getDurations() {
+            Map<String, Long> durations = new LinkedHashMap<>();
+            durations.put(TOTAL, totalMillis);
+            durations.putAll(stepMillis);
+            return durations;
+        }
+
+        /**
+         * @return Percentage of cache hits, or -1 if nothing was checked
+         */
+        public int getCacheHitRate() {
+            int checks = cacheHits + cacheMisses;
+            return checks == 0 ? -1 : cacheHits * 100 / checks;
+        }
+    }
+}
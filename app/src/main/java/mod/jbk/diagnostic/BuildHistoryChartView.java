@@ -0,0 +1,147 @@
+package mod.jbk.diagnostic;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.util.AttributeSet;
+import android.view.View;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.material.color.MaterialColors;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import pro.sketchware.R;
+
+/**
+ * Draws the durations of builds in a {@link BuildHistory} as one line per step, oldest build on the
+ * left, with a legend below.
+ */
+public class BuildHistoryChartView extends View {
+
+    private static final int[] SERIES_COLORS = {
+            0xFF1E88E5, 0xFFE53935, 0xFF43A047, 0xFFFB8C00, 0xFF8E24AA,
+            0xFF00ACC1, 0xFF6D4C41, 0xFFC0CA33, 0xFF3949AB, 0xFFD81B60
+    };
+    private static final int CHART_HEIGHT_DP = 200;
+
+    private final float density;
+    private final Paint linePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint pointPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint gridPaint = new Paint();
+    private final Paint textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final List<String> series = new ArrayList<>();
+    private List<BuildHistory.Record> records = Collections.emptyList();
+
+    public BuildHistoryChartView(Context context) {
+        this(context, null);
+    }
+
+    public BuildHistoryChartView(Context context, @Nullable AttributeSet attrs) {
+        super(context, attrs);
+        density = getResources().getDisplayMetrics().density;
+
+        int onSurface = MaterialColors.getColor(context, R.attr.colorOnSurface, "BuildHistoryChartView");
+        linePaint.setStyle(Paint.Style.STROKE);
+        linePaint.setStrokeWidth(2 * density);
+        gridPaint.setColor(onSurface);
+        gridPaint.setAlpha(60);
+        gridPaint.setStrokeWidth(density);
+        textPaint.setColor(onSurface);
+        textPaint.setTextSize(11 * getResources().getDisplayMetrics().scaledDensity);
+    }
+
+    /**
+     * @param records Builds to draw, oldest first
+     */
+    public void setRecords(List<BuildHistory.Record> records) {
+        this.records = records;
+        series.clear();
+        for (BuildHistory.Record record : records) {
+            for (String step : record.getDurations().keySet()) {
+                if (!series.contains(step)) series.add(step);
+            }
+        }
+        requestLayout();
+        invalidate();
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int height = (int) (CHART_HEIGHT_DP * density + series.size() * getLegendRowHeight());
+        setMeasuredDimension(MeasureSpec.getSize(widthMeasureSpec), resolveSize(height, heightMeasureSpec));
+    }
+
+    @Override
+    protected void onDraw(@NonNull Canvas canvas) {
+        super.onDraw(canvas);
+        if (records.isEmpty()) return;
+
+        long maxMillis = 1;
+        for (BuildHistory.Record record : records) {
+            for (long millis : record.getDurations().values()) {
+                maxMillis = Math.max(maxMillis, millis);
+            }
+        }
+
+        float textHeight = textPaint.getTextSize();
+        float left = textPaint.measureText(formatMillis(maxMillis)) + 8 * density;
+        float top = textHeight;
+        float right = getWidth() - 8 * density;
+        float bottom = CHART_HEIGHT_DP * density - 2 * textHeight;
+
+        for (int i = 0; i <= 2; i++) {
+            float y = bottom - (bottom - top) * i / 2;
+            canvas.drawLine(left, y, right, y, gridPaint);
+            canvas.drawText(formatMillis(maxMillis * i / 2), 0, y + textHeight / 3, textPaint);
+        }
+        canvas.drawText("Oldest", left, bottom + 1.5f * textHeight, textPaint);
+        String latestLabel = "Latest";
+        canvas.drawText(latestLabel, right - textPaint.measureText(latestLabel), bottom + 1.5f * textHeight, textPaint);
+
+        for (int i = 0; i < series.size(); i++) {
+            String step = series.get(i);
+            int color = SERIES_COLORS[i % SERIES_COLORS.length];
+            linePaint.setColor(color);
+            pointPaint.setColor(color);
+
+            Path path = new Path();
+            boolean connected = false;
+            for (int j = 0; j < records.size(); j++) {
+                Long millis = records.get(j).getDurations().get(step);
+                if (millis == null) {
+                    connected = false;
+                    continue;
+                }
+
+                float x = records.size() == 1 ? (left + right) / 2 : left + (right - left) * j / (records.size() - 1);
+                float y = bottom - (bottom - top) * millis / maxMillis;
+                if (connected) {
+                    path.lineTo(x, y);
+                } else {
+                    path.moveTo(x, y);
+                    connected = true;
+                }
+                canvas.drawCircle(x, y, 3 * density, pointPaint);
+            }
+            canvas.drawPath(path, linePaint);
+
+            float legendY = CHART_HEIGHT_DP * density + i * getLegendRowHeight();
+            canvas.drawRect(left, legendY, left + textHeight, legendY + textHeight, pointPaint);
+            canvas.drawText(step, left + 2 * textHeight, legendY + textHeight * 0.85f, textPaint);
+        }
+    }
+
+    private float getLegendRowHeight() {
+        return textPaint.getTextSize() * 1.6f;
+    }
+
+    private static String formatMillis(long millis) {
+        return millis >= 10000 ? millis / 1000 + " s" : millis + " ms";
+    }
+}
@@ -0,0 +1,454 @@
+package mod.jbk.diagnostic;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import com.besome.sketch.beans.BlockBean;
+import com.besome.sketch.beans.ComponentBean;
+import com.besome.sketch.beans.EventBean;
+import com.besome.sketch.beans.LayoutBean;
+import com.besome.sketch.beans.ProjectFileBean;
+import com.besome.sketch.beans.ProjectResourceBean;
+import com.besome.sketch.beans.ViewBean;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import a.a.a.GB;
+import a.a.a.eC;
+import a.a.a.hC;
+import a.a.a.jC;
+import a.a.a.kC;
+import a.a.a.kq;
+import a.a.a.lC;
+import a.a.a.nB;
+import a.a.a.oB;
+import a.a.a.wq;
+import a.a.a.xB;
+import mod.hey.studios.project.ProjectSettings;
+import mod.hey.studios.util.ProjectFile;
+
+/**
+ * Creates Sketchware projects of a configurable size with views, events, blocks, variables,
+ * components, More Blocks and images, to load test the Logic and View editors and builds.
+ * <p>
+ * Projects are created through the same project managers ({@link jC}) the editors use and saved the
+ * way {@link com.besome.sketch.design.DesignActivity} saves projects, so they're in the exact format
+ * the app reads. Generating with the same {@link Scale} and seed creates the same project again.
+ * <p>
+ * The project managers are shared by all screens, so this must not run while a project is open,
+ * and not on the main thread.
+ */
+public class SyntheticProjectGenerator {
+
+    public static final long DEFAULT_SEED = 42;
+
+    /**
+     * How deep <code>repeat</code> and <code>if</code> blocks get nested
+     */
+    private static final int MAX_NESTING_DEPTH = 4;
+    private static final int IMAGE_SIZE = 96;
+    private static final int[] COMPONENT_TYPES = {
+            ComponentBean.COMPONENT_TYPE_INTENT,
+            ComponentBean.COMPONENT_TYPE_SHAREDPREF,
+            ComponentBean.COMPONENT_TYPE_CALENDAR,
+            ComponentBean.COMPONENT_TYPE_VIBRATOR,
+            ComponentBean.COMPONENT_TYPE_TIMERTASK,
+            ComponentBean.COMPONENT_TYPE_DIALOG
+    };
+    private static final String[] COMPONENT_ID_PREFIXES = {"intent", "data", "calendar", "vibrator", "timer", "dialog"};
+    private static final String[] THEME_COLORS = {
+            ProjectFile.COLOR_ACCENT, ProjectFile.COLOR_PRIMARY, ProjectFile.COLOR_PRIMARY_DARK,
+            ProjectFile.COLOR_CONTROL_HIGHLIGHT, ProjectFile.COLOR_CONTROL_NORMAL
+    };
+
+    private final Context context;
+    private final Scale scale;
+    private final Random random;
+
+    private String sc_id;
+    private ArrayList<BlockBean> blocks;
+    private int nextBlockId;
+
+    public SyntheticProjectGenerator(Context context, Scale scale, long seed) {
+        this.context = context;
+        this.scale = scale;
+        random = new Random(seed);
+    }
+
+    /**
+     * Creates a new project and saves it.
+     *
+     * @return The new project's ID
+     */
+    public String generate() throws IOException {
+        jC.a();
+        sc_id = lC.b();
+        createProject();
+
+        hC projectFiles = jC.b(sc_id, false);
+        kC resources = jC.d(sc_id, false);
+        jC.c(sc_id, false);
+        eC data = jC.a(sc_id, false);
+        resources.f();
+        resources.g();
+        resources.e();
+
+        List<String> images = addImages(resources);
+
+        ArrayList<ProjectFileBean> activities = new ArrayList<>(projectFiles.b());
+        for (int i = 1; i < scale.activities; i++) {
+            activities.add(new ProjectFileBean(ProjectFileBean.PROJECT_FILE_TYPE_ACTIVITY, "screen" + i));
+        }
+        projectFiles.a(activities);
+        projectFiles.l();
+        projectFiles.j();
+        data.a(projectFiles);
+
+        for (ProjectFileBean activity : activities) {
+            addActivityContent(data, activity, images);
+        }
+
+        resources.a();
+        projectFiles.m();
+        data.j();
+        resources.x();
+        jC.c(sc_id).l();
+        resources.h();
+        jC.a();
+        return sc_id;
+    }
+
+    /**
+     * Writes the project's metadata like {@link com.besome.sketch.projects.MyProjectSettingActivity}
+     * does for new projects.
+     */
+    private void createProject() {
+        String name = "LoadTest" + sc_id;
+        HashMap<String, Object> metadata = new HashMap<>();
+        metadata.put("sc_id", sc_id);
+        metadata.put("my_sc_pkg_name", "com.loadtest.p" + sc_id);
+        metadata.put("my_ws_name", name);
+        metadata.put("my_app_name", name);
+        metadata.put("my_sc_reg_dt", new nB().a("yyyyMMddHHmmss"));
+        metadata.put("custom_icon", false);
+        metadata.put("isIconAdaptive", false);
+        metadata.put("sc_ver_code", "1");
+        metadata.put("sc_ver_name", "1.0");
+        metadata.put("sketchware_ver", GB.d(context));
+        for (String color : THEME_COLORS) {
+            metadata.put(color, ProjectFile.getDefaultColor(color));
+        }
+        lC.a(sc_id, metadata);
+        wq.a(context, sc_id);
+        new oB().b(wq.b(sc_id));
+
+        ProjectSettings projectSettings = new ProjectSettings(sc_id);
+        projectSettings.setValue(ProjectSettings.SETTING_NEW_XML_COMMAND, ProjectSettings.SETTING_GENERIC_VALUE_TRUE);
+        projectSettings.setValue(ProjectSettings.SETTING_ENABLE_VIEWBINDING, ProjectSettings.SETTING_GENERIC_VALUE_TRUE);
+    }
+
+    private List<String> addImages(kC resources) throws IOException {
+        List<String> names = new ArrayList<>();
+        ArrayList<ProjectResourceBean> images = new ArrayList<>(resources.b);
+        File directory = new File(resources.l());
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Couldn't create " + directory);
+        }
+
+        for (int i = 1; i <= scale.images; i++) {
+            String name = "image" + i;
+            Bitmap bitmap = Bitmap.createBitmap(IMAGE_SIZE, IMAGE_SIZE, Bitmap.Config.ARGB_8888);
+            int color = Color.HSVToColor(new float[]{random.nextInt(360), 0.6f, 0.9f});
+            for (int y = 0; y < IMAGE_SIZE; y++) {
+                for (int x = 0; x < IMAGE_SIZE; x++) {
+                    /* Noise keeps images from compressing to nothing, like real ones */
+                    bitmap.setPixel(x, y, (x + y) % 8 == 0 ? Color.WHITE : color ^ (random.nextInt() & 0x0F0F0F));
+                }
+            }
+            try (FileOutputStream output = new FileOutputStream(new File(directory, name + ".png"))) {
+                bitmap.compress(Bitmap.CompressFormat.PNG, 100, output);
+            } finally {
+                bitmap.recycle();
+            }
+            images.add(new ProjectResourceBean(ProjectResourceBean.PROJECT_RES_TYPE_FILE, name, name + ".png"));
+            names.add(name);
+        }
+        resources.b(images);
+        resources.y();
+        return names;
+    }
+
+    private void addActivityContent(eC data, ProjectFileBean activity, List<String> images) {
+        String xmlName = activity.getXmlName();
+        String javaName = activity.getJavaName();
+
+        List<String> layouts = new ArrayList<>();
+        List<String> textViews = new ArrayList<>();
+        List<String> buttons = new ArrayList<>();
+        HashMap<String, Integer> childCounts = new HashMap<>();
+        for (int i = 1; i <= scale.viewsPerActivity; i++) {
+            ViewBean view;
+            switch (images.isEmpty() ? i % 4 : i % 5) {
+                case 0 -> {
+                    view = new ViewBean("linear" + i, ViewBean.VIEW_TYPE_LAYOUT_LINEAR);
+                    view.layout.width = LayoutBean.LAYOUT_MATCH_PARENT;
+                    view.layout.orientation = LayoutBean.ORIENTATION_VERTICAL;
+                    view.layout.paddingLeft = view.layout.paddingTop = view.layout.paddingRight = view.layout.paddingBottom = 8;
+                }
+                case 1 -> {
+                    view = new ViewBean("textview" + i, ViewBean.VIEW_TYPE_WIDGET_TEXTVIEW);
+                    view.text.text = "TextView " + i;
+                    textViews.add(view.id);
+                }
+                case 2 -> {
+                    view = new ViewBean("button" + i, ViewBean.VIEW_TYPE_WIDGET_BUTTON);
+                    view.text.text = "Button " + i;
+                    buttons.add(view.id);
+                }
+                case 3 -> {
+                    view = new ViewBean("edittext" + i, ViewBean.VIEW_TYPE_WIDGET_EDITTEXT);
+                    view.text.hint = "EditText " + i;
+                }
+                default -> {
+                    view = new ViewBean("imageview" + i, ViewBean.VIEW_TYPE_WIDGET_IMAGEVIEW);
+                    view.image.resName = images.get(random.nextInt(images.size()));
+                }
+            }
+            if (layouts.isEmpty() || random.nextInt(4) == 0) {
+                view.parent = "root";
+                view.parentType = ViewBean.VIEW_TYPE_LAYOUT_LINEAR;
+            } else {
+                view.parent = layouts.get(random.nextInt(layouts.size()));
+                view.parentType = ViewBean.VIEW_TYPE_LAYOUT_LINEAR;
+            }
+            int index = childCounts.getOrDefault(view.parent, 0);
+            view.index = index;
+            childCounts.put(view.parent, index + 1);
+            if (view.type == ViewBean.VIEW_TYPE_LAYOUT_LINEAR) layouts.add(view.id);
+
+            data.a(xmlName, view);
+            if (view.type == ViewBean.VIEW_TYPE_WIDGET_BUTTON) {
+                data.a(javaName, EventBean.EVENT_TYPE_VIEW, view.type, view.id, "onClick");
+            }
+        }
+
+        List<String> numbers = new ArrayList<>();
+        List<String> strings = new ArrayList<>();
+        for (int i = 1; i <= scale.variablesPerActivity; i++) {
+            if (i % 2 == 1) {
+                numbers.add("number" + i);
+                data.c(javaName, 1, "number" + i);
+            } else {
+                strings.add("string" + i);
+                data.c(javaName, 2, "string" + i);
+            }
+        }
+
+        for (int i = 0; i < scale.componentsPerActivity; i++) {
+            int type = i % COMPONENT_TYPES.length;
+            String componentId = COMPONENT_ID_PREFIXES[type] + (i / COMPONENT_TYPES.length + 1);
+            if (COMPONENT_TYPES[type] == ComponentBean.COMPONENT_TYPE_SHAREDPREF) {
+                data.a(javaName, COMPONENT_TYPES[type], componentId, componentId);
+            } else {
+                data.a(javaName, COMPONENT_TYPES[type], componentId);
+            }
+        }
+
+        List<String> moreBlocks = new ArrayList<>();
+        for (int i = 1; i <= scale.moreBlocksPerActivity; i++) {
+            String moreBlock = "moreBlock" + i;
+            data.a(javaName, moreBlock, moreBlock);
+            moreBlocks.add(moreBlock);
+        }
+
+        /* Blocks get spread over onCreate, all onClick events and all More Blocks */
+        List<String> eventKeys = new ArrayList<>();
+        List<BlockPalette> palettes = new ArrayList<>();
+        BlockPalette palette = new BlockPalette(textViews, numbers, strings, moreBlocks);
+        eventKeys.add("onCreate_initializeLogic");
+        palettes.add(palette);
+        for (String button : buttons) {
+            eventKeys.add(button + "_onClick");
+            palettes.add(palette);
+        }
+        for (int i = 0; i < moreBlocks.size(); i++) {
+            eventKeys.add(moreBlocks.get(i) + "_moreBlock");
+            /* More Blocks only call ones before them, so that they never recurse */
+            palettes.add(new BlockPalette(textViews, numbers, strings, moreBlocks.subList(0, i)));
+        }
+        for (int i = 0; i < eventKeys.size(); i++) {
+            int budget = scale.blocksPerActivity / eventKeys.size()
+                    + (i < scale.blocksPerActivity % eventKeys.size() ? 1 : 0);
+            if (budget == 0) continue;
+
+            blocks = new ArrayList<>();
+            nextBlockId = 10;
+            addStack(palettes.get(i), budget, 0);
+            data.a(javaName, eventKeys.get(i), blocks);
+        }
+    }
+
+    /**
+     * Adds a stack of statements made up of exactly <code>budget</code> blocks.
+     *
+     * @return The ID of the stack's first block
+     */
+    private int addStack(BlockPalette palette, int budget, int depth) {
+        int firstId = -1;
+        BlockBean previous = null;
+        while (budget > 0) {
+            int blockCountBefore = blocks.size();
+            BlockBean statement = addStatement(palette, budget, depth);
+            budget -= blocks.size() - blockCountBefore;
+
+            int id = Integer.parseInt(statement.id);
+            if (previous == null) {
+                firstId = id;
+            } else {
+                previous.nextBlock = id;
+            }
+            previous = statement;
+        }
+        return firstId;
+    }
+
+    /**
+     * Adds a statement of at most <code>budget</code> blocks, including its parameters' blocks and
+     * nested statements.
+     */
+    private BlockBean addStatement(BlockPalette palette, int budget, int depth) {
+        int kind = random.nextInt(8);
+        if (budget < 3 || depth >= MAX_NESTING_DEPTH) {
+            /* Only statements without nested ones */
+            kind = budget < 2 ? random.nextInt(3) : 3 + random.nextInt(3);
+        }
+
+        switch (kind) {
+            case 1:
+                if (!palette.numbers.isEmpty()) {
+                    return addBlock(" ", "increaseInt", palette.pick(palette.numbers));
+                }
+                break;
+            case 2:
+                if (!palette.moreBlocks.isEmpty()) {
+                    return addBlockWithSpec(" ", "definedFunc", palette.pick(palette.moreBlocks));
+                }
+                break;
+            case 3:
+                if (!palette.textViews.isEmpty()) {
+                    BlockBean setText = addBlock(" ", "setText", palette.pick(palette.textViews), "");
+                    setText.parameters.set(1, "@" + addBlock("s", "stringJoin", "Hello ", "world").id);
+                    return setText;
+                }
+                break;
+            case 4:
+                if (!palette.numbers.isEmpty()) {
+                    BlockBean setVar = addBlock(" ", "setVarInt", palette.pick(palette.numbers), "");
+                    setVar.parameters.set(1, "@" + addBlock("d", "+", String.valueOf(random.nextInt(100)), "1").id);
+                    return setVar;
+                }
+                break;
+            case 5:
+                if (!palette.strings.isEmpty()) {
+                    BlockBean setVar = addBlock(" ", "setVarString", palette.pick(palette.strings), "");
+                    setVar.parameters.set(1, "@" + addBlock("s", "stringJoin", "a", "b").id);
+                    return setVar;
+                }
+                break;
+            case 6: {
+                BlockBean repeat = addBlock("c", "repeat", String.valueOf(1 + random.nextInt(10)));
+                repeat.subStack1 = addStack(palette, 1 + random.nextInt(Math.min(budget - 1, 8)), depth + 1);
+                return repeat;
+            }
+            case 7: {
+                BlockBean ifBlock = addBlock("c", "if", "");
+                ifBlock.parameters.set(0, "@" + addBlock("b", "<", String.valueOf(random.nextInt(10)), "5").id);
+                ifBlock.subStack1 = addStack(palette, 1 + random.nextInt(Math.min(budget - 2, 8)), depth + 1);
+                return ifBlock;
+            }
+        }
+        return addBlock(" ", "doToast", "Block " + nextBlockId);
+    }
+
+    private BlockBean addBlock(String type, String opCode, String... parameters) {
+        return addBlockWithSpec(type, opCode, xB.b().a(context, opCode), parameters);
+    }
+
+    /**
+     * @param spec The block's spec, for blocks like More Block calls whose spec isn't the same for
+     *             every block with their opcode
+     */
+    private BlockBean addBlockWithSpec(String type, String opCode, String spec, String... parameters) {
+        BlockBean block = new BlockBean(String.valueOf(nextBlockId++), spec, type, opCode);
+        block.color = kq.a(opCode, type);
+        for (String parameter : parameters) {
+            block.parameters.add(parameter);
+        }
+        blocks.add(block);
+        return block;
+    }
+
+    /**
+     * Size of a generated project. Blocks are counted without event blocks, but with blocks in
+     * parameters and nested ones.
+     */
+    public static class Scale {
+        public static final Scale SMALL = new Scale(10, 20, 200, 5, 4, 4, 10);
+        public static final Scale MEDIUM = new Scale(50, 40, 1000, 10, 8, 8, 50);
+        public static final Scale LARGE = new Scale(100, 60, 2000, 20, 12, 12, 100);
+
+        public final int activities;
+        public final int viewsPerActivity;
+        public final int blocksPerActivity;
+        public final int variablesPerActivity;
+        public final int componentsPerActivity;
+        public final int moreBlocksPerActivity;
+        public final int images;
+
+        public Scale(int activities, int viewsPerActivity, int blocksPerActivity, int variablesPerActivity,
+                     int componentsPerActivity, int moreBlocksPerActivity, int images) {
+            this.activities = activities;
+            this.viewsPerActivity = viewsPerActivity;
+            this.blocksPerActivity = blocksPerActivity;
+            this.variablesPerActivity = variablesPerActivity;
+            this.componentsPerActivity = componentsPerActivity;
+            this.moreBlocksPerActivity = moreBlocksPerActivity;
+            this.images = images;
+        }
+
+        @Override
+        public String toString() {
+            return activities + " activities × " + blocksPerActivity + " blocks, " + viewsPerActivity
+                    + " views, " + componentsPerActivity + " components, " + moreBlocksPerActivity
+                    + " More Blocks each, " + images + " images";
+        }
+    }
+
+    /**
+     * What blocks of an activity can refer to.
+     */
+    private class BlockPalette {
+        private final List<String> textViews;
+        private final List<String> numbers;
+        private final List<String> strings;
+        private final List<String> moreBlocks;
+
+        private BlockPalette(List<String> textViews, List<String> numbers, List<String> strings, List<String> moreBlocks) {
+            this.textViews = textViews;
+            this.numbers = numbers;
+            this.strings = strings;
+            this.moreBlocks = moreBlocks;
+        }
+
+        private String pick(List<String> names) {
+            return names.get(random.nextInt(names.size()));
+        }
+    }
+}
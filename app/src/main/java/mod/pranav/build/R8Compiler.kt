@@ -6,6 +6,8 @@ import com.android.tools.r8.OutputMode
 import com.android.tools.r8.R8
 import com.android.tools.r8.R8Command
 import com.android.tools.r8.origin.Origin
+import mod.jbk.build.ClasspathIndex
+import java.io.File
 import java.nio.file.Files
 import java.nio.file.Paths
 
@@ -27,11 +29,18 @@ class R8Compiler(
             .addProguardConfigurationFiles(configs.map { Paths.get(it) })
             .setProguardMapOutputPath(Paths.get(yq.proguardMappingPath))
             .setMinApiLevel(minApi)
-            .addLibraryFiles(libs.map { Paths.get(it) })
             .setOutput(output, OutputMode.DexIndexed)
             .setMode(CompilationMode.RELEASE)
-            .build()
+        // Indexed JARs don't need to be opened and scanned again by R8
+        for (lib in libs) {
+            val indexedJar = ClasspathIndex.getInstance().getLibraryProvider(File(lib))
+            if (indexedJar != null) {
+                command.addLibraryResourceProvider(indexedJar)
+            } else {
+                command.addLibraryFiles(Paths.get(lib))
+            }
+        }
 
-        R8.run(command)
+        R8.run(command.build())
     }
 }
@@ -31,6 +31,7 @@ import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 import com.google.android.material.floatingactionbutton.ExtendedFloatingActionButton;
 import com.google.android.material.transition.MaterialFadeThrough;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -44,10 +45,14 @@ import a.a.a.lC;
 import dev.chrisbanes.insetter.Insetter;
 import mod.hey.studios.project.ProjectTracker;
 import mod.hey.studios.project.backup.BackupRestoreManager;
+import mod.jbk.diagnostic.SyntheticProjectGenerator;
+import mod.jbk.util.LogUtil;
+import pro.sketchware.BuildConfig;
 import pro.sketchware.R;
 import pro.sketchware.activities.main.activities.MainActivity;
 import pro.sketchware.databinding.MyprojectsBinding;
 import pro.sketchware.databinding.SortProjectDialogBinding;
+import pro.sketchware.utility.SketchwareUtil;
 import pro.sketchware.utility.UI;
 
 public class ProjectsFragment extends DA {
@@ -172,6 +177,7 @@ public class ProjectsFragment extends DA {
             @Override
             public void onCreateMenu(@NonNull Menu menu, @NonNull MenuInflater menuInflater) {
                 menuInflater.inflate(R.menu.projects_fragment_menu, menu);
+                menu.findItem(R.id.generateLoadTestProject).setVisible(BuildConfig.DEBUG);
                 projectsSearchView = (SearchView) menu.findItem(R.id.searchProjects).getActionView();
                 if (projectsSearchView != null) {
                     projectsSearchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
@@ -191,6 +197,10 @@ public class ProjectsFragment extends DA {
 
             @Override
             public boolean onMenuItemSelected(@NonNull MenuItem menuItem) {
+                if (menuItem.getItemId() == R.id.generateLoadTestProject) {
+                    showGenerateLoadTestProjectDialog();
+                    return true;
+                }
                 return false;
             }
         };
@@ -312,6 +322,38 @@ public class ProjectsFragment extends DA {
         dialog.show();
     }
 
+    private void showGenerateLoadTestProjectDialog() {
+        SyntheticProjectGenerator.Scale[] scales = {
+                SyntheticProjectGenerator.Scale.SMALL,
+                SyntheticProjectGenerator.Scale.MEDIUM,
+                SyntheticProjectGenerator.Scale.LARGE
+        };
+        String[] labels = new String[scales.length];
+        for (int i = 0; i < scales.length; i++) {
+            labels[i] = scales[i].toString();
+        }
+
+        MaterialAlertDialogBuilder dialog = new MaterialAlertDialogBuilder(requireActivity());
+        dialog.setTitle("Generate load test project");
+        dialog.setItems(labels, (v, which) -> {
+            SketchwareUtil.toast("Generating project, this can take a while");
+            SyntheticProjectGenerator generator = new SyntheticProjectGenerator(requireContext().getApplicationContext(),
+                    scales[which], SyntheticProjectGenerator.DEFAULT_SEED);
+            executorService.execute(() -> {
+                try {
+                    String sc_id = generator.generate();
+                    requireActivity().runOnUiThread(() -> SketchwareUtil.toast("Generated project " + sc_id));
+                    addProject(sc_id);
+                } catch (IOException | RuntimeException e) {
+                    LogUtil.e("ProjectsFragment", "Couldn't generate load test project", e);
+                    requireActivity().runOnUiThread(() -> SketchwareUtil.toastError("Couldn't generate project: " + e.getMessage()));
+                }
+            });
+        });
+        dialog.setNegativeButton("Cancel", null);
+        dialog.show();
+    }
+
     private static class ProjectDiffCallback extends DiffUtil.Callback {
         private final List<HashMap<String, Object>> oldList;
         private final List<HashMap<String, Object>> newList;
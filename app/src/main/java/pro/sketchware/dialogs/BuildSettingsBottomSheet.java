@@ -4,6 +4,7 @@ import static mod.hey.studios.build.BuildSettings.SETTING_ANDROID_JAR_PATH;
 import static mod.hey.studios.build.BuildSettings.SETTING_CLASSPATH;
 import static mod.hey.studios.build.BuildSettings.SETTING_DEXER;
 import static mod.hey.studios.build.BuildSettings.SETTING_ENABLE_LOGCAT;
+import static mod.hey.studios.build.BuildSettings.SETTING_INCREMENTAL_BUILD;
 import static mod.hey.studios.build.BuildSettings.SETTING_JAVA_VERSION;
 import static mod.hey.studios.build.BuildSettings.SETTING_JAVA_VERSION_10;
 import static mod.hey.studios.build.BuildSettings.SETTING_JAVA_VERSION_11;
@@ -12,6 +13,7 @@ import static mod.hey.studios.build.BuildSettings.SETTING_JAVA_VERSION_1_8;
 import static mod.hey.studios.build.BuildSettings.SETTING_JAVA_VERSION_1_9;
 import static mod.hey.studios.build.BuildSettings.SETTING_NO_HTTP_LEGACY;
 import static mod.hey.studios.build.BuildSettings.SETTING_NO_WARNINGS;
+import static mod.hey.studios.build.BuildSettings.SETTING_VERBOSE_DX;
 
 import android.os.Bundle;
 import android.view.LayoutInflater;
@@ -40,6 +42,8 @@ public class BuildSettingsBottomSheet extends BottomSheetDialogFragment {
     private static final int VIEW_NO_WARNINGS = totalViews++;
     private static final int VIEW_NO_HTTP_LEGACY = totalViews++;
     private static final int VIEW_ENABLE_LOGCAT = totalViews++;
+    private static final int VIEW_INCREMENTAL_BUILD = totalViews++;
+    private static final int VIEW_VERBOSE_DX = totalViews++;
     private View[] views;
 
     private ProjectConfigLayoutBinding binding;
@@ -87,6 +91,8 @@ public class BuildSettingsBottomSheet extends BottomSheetDialogFragment {
         binding.noWarnings.setOnClickListener(v -> binding.cbNoWarnings.performClick());
         binding.noHttpLegacy.setOnClickListener(v -> binding.cbNoHttpLegacy.performClick());
         binding.enableLogcat.setOnClickListener(v -> binding.cbEnableLogcat.performClick());
+        binding.incrementalBuild.setOnClickListener(v -> binding.cbIncrementalBuild.performClick());
+        binding.verboseDx.setOnClickListener(v -> binding.cbVerboseDx.performClick());
 
         binding.tilAndroidJar.getEditText().setText(projectSettings.getValue(SETTING_ANDROID_JAR_PATH, ""));
         binding.tilClasspath.getEditText().setText(projectSettings.getValue(SETTING_CLASSPATH, ""));
@@ -97,6 +103,8 @@ public class BuildSettingsBottomSheet extends BottomSheetDialogFragment {
         setCheckboxValue(binding.cbNoWarnings, SETTING_NO_WARNINGS, true);
         setCheckboxValue(binding.cbNoHttpLegacy, SETTING_NO_HTTP_LEGACY, false);
         setCheckboxValue(binding.cbEnableLogcat, SETTING_ENABLE_LOGCAT, true);
+        setCheckboxValue(binding.cbIncrementalBuild, SETTING_INCREMENTAL_BUILD, false);
+        setCheckboxValue(binding.cbVerboseDx, SETTING_VERBOSE_DX, false);
 
         binding.btnCancel.setOnClickListener(v -> dismiss());
         binding.btnSave.setOnClickListener(v -> {
@@ -119,14 +127,18 @@ public class BuildSettingsBottomSheet extends BottomSheetDialogFragment {
         binding.cbNoWarnings.setTag(SETTING_NO_WARNINGS);
         binding.cbNoHttpLegacy.setTag(SETTING_NO_HTTP_LEGACY);
         binding.cbEnableLogcat.setTag(SETTING_ENABLE_LOGCAT);
+        binding.cbIncrementalBuild.setTag(SETTING_INCREMENTAL_BUILD);
+        binding.cbVerboseDx.setTag(SETTING_VERBOSE_DX);
 
         views[VIEW_ANDROIR_JAR_PATH] = binding.tilAndroidJar.getEditText();
         views[VIEW_CLASS_PATH] = binding.tilClasspath.getEditText();
         views[VIEW_DEXER] = binding.rgDexer;
         views[VIEW_ENABLE_LOGCAT] = binding.cbEnableLogcat;
+        views[VIEW_INCREMENTAL_BUILD] = binding.cbIncrementalBuild;
         views[VIEW_JAVA_VERSION] = binding.rgJavaVersion;
         views[VIEW_NO_HTTP_LEGACY] = binding.cbNoHttpLegacy;
         views[VIEW_NO_WARNINGS] = binding.cbNoWarnings;
+        views[VIEW_VERBOSE_DX] = binding.cbVerboseDx;
     }
 
     private void setRadioGroupOptions(RadioGroup radioGroup, String[] options, String key, String defaultValue) {
@@ -13,6 +13,14 @@ public class FilePathUtil {
         return new File(SKETCHWARE_DATA, sc_id + "/compile_log").getAbsolutePath();
     }
 
+    public static String getLastBuildTracePath(String sc_id) {
+        return new File(SKETCHWARE_DATA, sc_id + "/build_trace.json").getAbsolutePath();
+    }
+
+    public static String getBuildHistoryPath(String sc_id) {
+        return new File(SKETCHWARE_DATA, sc_id + "/build_history").getAbsolutePath();
+    }
+
     public String getPathPermission(String sc_id) {
         return new File(SKETCHWARE_DATA, sc_id + "/permission").getAbsolutePath();
     }
@@ -0,0 +1,93 @@
+package mod.jbk.build.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import mod.agus.jcoderz.dex.ClassDef;
+import mod.agus.jcoderz.dex.Dex;
+import mod.agus.jcoderz.dx.command.dexer.DxContext;
+import mod.agus.jcoderz.dx.merge.CollisionPolicy;
+import mod.agus.jcoderz.dx.merge.DexMerger;
+
+/**
+ * Dexing, parsing and merging DEX files of fixture projects of increasing size, which is what
+ * building a project with Dx and merging its DEX files with libraries' boils down to.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DexBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int classCount;
+
+    private FixtureProject project;
+    private File mergedDex;
+    private byte[] mergedDexBytes;
+    private Dex[] classDexes;
+
+    @Setup(Level.Trial)
+    public void createProject() throws IOException {
+        project = FixtureProject.create(classCount);
+        mergedDex = new File(project.directory, "classes.dex");
+        if (FixtureProject.dex(mergedDex, project.classesDirectory) != 0) {
+            throw new IOException("Dx failed to dex " + project.classesDirectory);
+        }
+        mergedDexBytes = Files.readAllBytes(mergedDex.toPath());
+
+        classDexes = new Dex[project.classDexFiles.size()];
+        for (int i = 0; i < classDexes.length; i++) {
+            classDexes[i] = Dex.map(project.classDexFiles.get(i));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteProject() throws IOException {
+        project.delete();
+    }
+
+    /**
+     * A full Dx run over the project's classes directory, as in non-incremental builds.
+     */
+    @Benchmark
+    public int dexClassesDirectory() throws IOException {
+        return FixtureProject.dex(new File(project.directory, "benchmark.dex"), project.classesDirectory);
+    }
+
+    /**
+     * Parsing a DEX file's class definitions and their type names.
+     */
+    @Benchmark
+    public void parseDex(Blackhole blackhole) throws IOException {
+        Dex dex = new Dex(mergedDexBytes);
+        for (ClassDef classDef : dex.classDefs()) {
+            blackhole.consume(dex.typeNames().get(classDef.getTypeIndex()));
+        }
+        blackhole.consume(dex.strings().size());
+    }
+
+    /**
+     * Merging one DEX file per class into a single one, as incremental builds do.
+     */
+    @Benchmark
+    public Dex mergeClassDexes() throws IOException {
+        /* DexMerger prints a line per merged DEX file, which would be measured too */
+        DxContext context = new DxContext(OutputStream.nullOutputStream(), System.err);
+        return new DexMerger(classDexes, CollisionPolicy.FAIL, context).merge();
+    }
+}
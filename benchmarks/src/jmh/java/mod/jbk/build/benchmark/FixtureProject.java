@@ -0,0 +1,134 @@
+package mod.jbk.build.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import mod.agus.jcoderz.dx.command.dexer.Main;
+
+/**
+ * A synthetic project of generated classes, compiled with the host's javac, and dexed one class per
+ * DEX file like incremental builds with Dx do. Each class calls into the one before it, so
+ * merged DEX files share types, strings and method IDs like a real project's classes do.
+ */
+final class FixtureProject {
+
+    private static final String PACKAGE = "com/my/newproject";
+    private static final int FIELDS_PER_CLASS = 8;
+    private static final int METHODS_PER_CLASS = 12;
+
+    final File directory;
+    final File classesDirectory;
+    final List<File> classDexFiles = new ArrayList<>();
+
+    private FixtureProject(File directory) {
+        this.directory = directory;
+        classesDirectory = new File(directory, "classes");
+    }
+
+    /**
+     * Generates, compiles and dexes a project of <code>classCount</code> classes in a new temporary
+     * directory, which {@link #delete()} removes again.
+     */
+    static FixtureProject create(int classCount) throws IOException {
+        FixtureProject project = new FixtureProject(Files.createTempDirectory("fixture-" + classCount + "-").toFile());
+        File sourcesDirectory = new File(project.directory, "java/" + PACKAGE);
+        if (!sourcesDirectory.mkdirs() || !project.classesDirectory.mkdirs()) {
+            throw new IOException("Couldn't create directories in " + project.directory);
+        }
+
+        List<String> javacArgs = new ArrayList<>(List.of("-d", project.classesDirectory.getAbsolutePath(), "-g", "--release", "8"));
+        for (int i = 0; i < classCount; i++) {
+            File source = new File(sourcesDirectory, getClassName(i) + ".java");
+            Files.writeString(source.toPath(), generateClass(i), StandardCharsets.UTF_8);
+            javacArgs.add(source.getAbsolutePath());
+        }
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        if (javac == null) throw new IOException("Benchmarks need a JDK to compile fixture projects");
+        if (javac.run(null, null, null, javacArgs.toArray(new String[0])) != 0) {
+            throw new IOException("Couldn't compile fixture project with " + classCount + " classes");
+        }
+
+        File classDexesDirectory = new File(project.directory, "dex_cache");
+        if (!classDexesDirectory.mkdirs()) throw new IOException("Couldn't create " + classDexesDirectory);
+        for (int i = 0; i < classCount; i++) {
+            File classFile = new File(project.classesDirectory, PACKAGE + "/" + getClassName(i) + ".class");
+            File classDex = new File(classDexesDirectory, getClassName(i) + ".dex");
+            if (dex(classDex, classFile) != 0) throw new IOException("Dx failed to dex " + classFile);
+            project.classDexFiles.add(classDex);
+        }
+        return project;
+    }
+
+    /**
+     * Runs Dx in-process like the app does.
+     *
+     * @return Dx's exit code, 0 on success
+     */
+    static int dex(File output, File... inputs) throws IOException {
+        Main.clearInternTables();
+        Main.Arguments arguments = new Main.Arguments();
+        /* Class files are passed by absolute path, which the strict check wants relative to their package root */
+        arguments.parseFlags(new String[]{"--debug", "--no-strict", "--output=" + output.getAbsolutePath()});
+        arguments.fileNames = new String[inputs.length];
+        for (int i = 0; i < inputs.length; i++) {
+            arguments.fileNames[i] = inputs[i].getAbsolutePath();
+        }
+        return Main.run(arguments);
+    }
+
+    void delete() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory.toPath())) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private static String getClassName(int index) {
+        return "Generated" + index;
+    }
+
+    private static String generateClass(int index) {
+        String className = getClassName(index);
+        StringBuilder source = new StringBuilder();
+        source.append("package ").append(PACKAGE.replace('/', '.')).append(";\n\n");
+        source.append("public class ").append(className).append(" {\n");
+        source.append("    public static final String NAME = \"").append(className).append("\";\n");
+        for (int field = 0; field < FIELDS_PER_CLASS; field++) {
+            source.append("    private int field").append(field).append(" = ").append(field * index).append(";\n");
+        }
+        source.append("    private final StringBuilder log = new StringBuilder();\n\n");
+
+        for (int method = 0; method < METHODS_PER_CLASS; method++) {
+            source.append("    public int method").append(method).append("(int value) {\n");
+            source.append("        log.append(NAME).append(\".method").append(method).append(" \").append(value);\n");
+            source.append("        int result = value * ").append(method + 1)
+                    .append(" + field").append(method % FIELDS_PER_CLASS).append(";\n");
+            source.append("        for (int i = 0; i < value % 7; i++) {\n");
+            source.append("            result ^= (result << 3) + i;\n");
+            source.append("        }\n");
+            if (index > 0) {
+                source.append("        result += new ").append(getClassName(index - 1))
+                        .append("().method").append(method).append("(value - 1);\n");
+            }
+            source.append("        return result;\n");
+            source.append("    }\n\n");
+        }
+        source.append("    @Override\n");
+        source.append("    public String toString() {\n");
+        source.append("        return NAME + log;\n");
+        source.append("    }\n");
+        source.append("}\n");
+        return source.toString();
+    }
+}